@@ -0,0 +1,225 @@
+#!/usr/bin/env python3
+"""Validation benchmark for hybridDemography.
+
+Runs replicates of one configuration with the default demography and with
+hybridDemography: true, reduces each run's out.timeseries to per-run summaries
+and checks that the two modes give the same distribution of each summary.
+
+For each summary it reports:
+  - mean and sd per mode
+  - the difference in means with a 90% confidence interval (Welch)
+  - a two-sample Kolmogorov-Smirnov test of the whole distribution
+and calls the modes equivalent when the 90% interval lies within +/- margin
+(two one-sided tests at the 5% level) and the KS p-value is above 0.05.
+The margin is given in standard deviations of the default mode, since
+summaries such as antigenic diversity vary between replicates by far more
+than a fixed percentage of their mean.
+
+Usage:
+  mvn package
+  python3 scripts/benchmark_demography.py --replicates 50 \
+      --set "initialNs: [250000, 250000, 250000]" --set "endDay: 365"
+
+Only the Python standard library is needed. Each run gets its own working
+directory under --work, with parameters.yml placed first on the classpath.
+"""
+
+import argparse
+import math
+import os
+import shutil
+import statistics
+import subprocess
+import sys
+import time
+
+SUMMARIES = ["totalCases", "peakPrevalence", "meanDiversity", "meanAntigenicDiversity"]
+
+
+def parse_args():
+    root = os.path.dirname(os.path.dirname(os.path.abspath(__file__)))
+    parser = argparse.ArgumentParser(description=__doc__.split("\n")[0])
+    parser.add_argument("--jar", default=os.path.join(root, "target", "antigen-prime.jar"))
+    parser.add_argument(
+        "--parameters", default=os.path.join(root, "src", "main", "resources", "parameters.yml")
+    )
+    parser.add_argument("--replicates", type=int, default=50)
+    parser.add_argument("--set", action="append", default=[], metavar="'key: value'")
+    parser.add_argument(
+        "--margin", type=float, default=0.75, help="equivalence margin, in default-mode sds"
+    )
+    parser.add_argument("--java", default="java")
+    parser.add_argument("--java-opts", default="-Xmx4G -XX:+UseSerialGC")
+    parser.add_argument("--work", default="benchmark-demography")
+    parser.add_argument("--keep", action="store_true", help="keep each run's output")
+    return parser.parse_args()
+
+
+def write_parameters(base, overrides, path):
+    keys = {o.split(":")[0].strip() for o in overrides}
+    with open(base) as f:
+        lines = [l.rstrip("\n") for l in f if l.split(":")[0].strip() not in keys]
+    with open(path, "w") as f:
+        f.write("\n".join(lines + overrides) + "\n")
+
+
+def summarize(timeseries):
+    with open(timeseries) as f:
+        header = f.readline().split()
+        rows = [dict(zip(header, map(float, line.split()))) for line in f if line.strip()]
+    if not rows:
+        return None
+    return {
+        "totalCases": sum(r["totalCases"] for r in rows),
+        "peakPrevalence": max(r["totalI"] for r in rows),
+        "meanDiversity": statistics.mean(r["diversity"] for r in rows),
+        "meanAntigenicDiversity": statistics.mean(r["antigenicDiversity"] for r in rows),
+    }
+
+
+def run(args, mode, replicate, overrides):
+    directory = os.path.join(args.work, "%s-%03d" % (mode, replicate))
+    shutil.rmtree(directory, ignore_errors=True)
+    os.makedirs(os.path.join(directory, "cp"))
+    write_parameters(args.parameters, overrides, os.path.join(directory, "cp", "parameters.yml"))
+    classpath = os.pathsep.join([os.path.abspath(os.path.join(directory, "cp")), os.path.abspath(args.jar)])
+    command = [args.java] + args.java_opts.split() + ["-cp", classpath, "org.antigen.Antigen"]
+    start = time.time()
+    with open(os.path.join(directory, "stdout.txt"), "w") as out:
+        code = subprocess.call(command, cwd=directory, stdout=out, stderr=subprocess.STDOUT)
+    elapsed = time.time() - start
+    summary = summarize(os.path.join(directory, "out.timeseries")) if code == 0 else None
+    if summary is None:
+        print("%s replicate %d failed, see %s" % (mode, replicate, directory), file=sys.stderr)
+    elif not args.keep:
+        shutil.rmtree(directory, ignore_errors=True)
+    return summary, elapsed
+
+
+def ks_test(a, b):
+    """Two-sample Kolmogorov-Smirnov statistic and asymptotic p-value."""
+    a, b = sorted(a), sorted(b)
+    i = j = 0
+    d = 0.0
+    while i < len(a) and j < len(b):
+        x = min(a[i], b[j])
+        while i < len(a) and a[i] == x:
+            i += 1
+        while j < len(b) and b[j] == x:
+            j += 1
+        d = max(d, abs(i / len(a) - j / len(b)))
+    n = len(a) * len(b) / (len(a) + len(b))
+    lam = (math.sqrt(n) + 0.12 + 0.11 / math.sqrt(n)) * d
+    p = 2 * sum((-1) ** (k - 1) * math.exp(-2 * k * k * lam * lam) for k in range(1, 101))
+    return d, min(1.0, max(0.0, p))
+
+
+def t_quantile_95(df):
+    """Upper 5% point of Student's t, by bisection on the regularized incomplete beta."""
+
+    def cdf(t):
+        x = df / (df + t * t)
+        return 1 - 0.5 * incomplete_beta(df / 2, 0.5, x)
+
+    lo, hi = 0.0, 20.0
+    for _ in range(100):
+        mid = (lo + hi) / 2
+        if cdf(mid) < 0.95:
+            lo = mid
+        else:
+            hi = mid
+    return (lo + hi) / 2
+
+
+def incomplete_beta(a, b, x):
+    """Regularized incomplete beta I_x(a, b) by continued fraction (Numerical Recipes)."""
+    if x <= 0.0 or x >= 1.0:
+        return max(0.0, min(1.0, x))
+    if x > (a + 1) / (a + b + 2):
+        return 1 - incomplete_beta(b, a, 1 - x)
+    front = math.exp(
+        math.lgamma(a + b) - math.lgamma(a) - math.lgamma(b) + a * math.log(x) + b * math.log(1 - x)
+    )
+    f, c, d = 1.0, 1.0, 0.0
+    for i in range(200):
+        m = i // 2
+        if i == 0:
+            numerator = 1.0
+        elif i % 2 == 0:
+            numerator = m * (b - m) * x / ((a + 2 * m - 1) * (a + 2 * m))
+        else:
+            numerator = -(a + m) * (a + b + m) * x / ((a + 2 * m) * (a + 2 * m + 1))
+        d = 1 + numerator * d
+        d = 1 / (d if abs(d) > 1e-30 else 1e-30)
+        c = 1 + numerator / (c if abs(c) > 1e-30 else 1e-30)
+        f *= c * d
+        if abs(1 - c * d) < 1e-12:
+            break
+    return front * (f - 1) / a
+
+
+def compare(default, hybrid, margin):
+    ma, mb = statistics.mean(default), statistics.mean(hybrid)
+    va, vb = statistics.variance(default), statistics.variance(hybrid)
+    se = math.sqrt(va / len(default) + vb / len(hybrid))
+    df = se ** 4 / ((va / len(default)) ** 2 / (len(default) - 1) + (vb / len(hybrid)) ** 2 / (len(hybrid) - 1))
+    half = t_quantile_95(df) * se
+    diff = mb - ma
+    bound = margin * math.sqrt(va)
+    d, p = ks_test(default, hybrid)
+    equivalent = -bound < diff - half and diff + half < bound and p > 0.05
+    return diff, diff - half, diff + half, bound, d, p, equivalent
+
+
+def main():
+    args = parse_args()
+    if not os.path.exists(args.jar):
+        sys.exit("No jar at %s, build it with mvn package" % args.jar)
+    os.makedirs(args.work, exist_ok=True)
+    modes = {"default": "hybridDemography: false", "hybrid": "hybridDemography: true"}
+    results = {mode: [] for mode in modes}
+    times = {mode: [] for mode in modes}
+    # alternate modes so that drift in machine load affects both alike
+    for r in range(args.replicates):
+        for mode, setting in modes.items():
+            # repeatSim restarts epidemics that die out, so both modes are compared on runs that
+            # reach endDay
+            overrides = ["repeatSim: true", "reducedOutput: true"] + args.set + [setting]
+            summary, elapsed = run(args, mode, r, overrides)
+            if summary is not None:
+                results[mode].append(summary)
+                times[mode].append(elapsed)
+            print("%s %d/%d %.1f s" % (mode, r + 1, args.replicates, elapsed), file=sys.stderr)
+
+    if min(len(v) for v in results.values()) < 3:
+        sys.exit("Too few completed replicates to compare")
+
+    print("| Mode | Runs | " + " | ".join("%s (mean ± sd)" % s for s in SUMMARIES) + " | Wall time (mean) |")
+    print("|" + "---|" * (len(SUMMARIES) + 3))
+    for mode in modes:
+        cells = []
+        for s in SUMMARIES:
+            values = [x[s] for x in results[mode]]
+            cells.append("%.4g ± %.3g" % (statistics.mean(values), statistics.stdev(values)))
+        print(
+            "| %s | %d | %s | %.1f s |"
+            % (mode, len(results[mode]), " | ".join(cells), statistics.mean(times[mode]))
+        )
+    print()
+    print("| Summary | Hybrid − default | 90% CI | Margin | KS D | KS p | Equivalent |")
+    print("|---|---|---|---|---|---|---|")
+    failed = False
+    for s in SUMMARIES:
+        default = [x[s] for x in results["default"]]
+        hybrid = [x[s] for x in results["hybrid"]]
+        diff, lo, hi, bound, d, p, equivalent = compare(default, hybrid, args.margin)
+        failed |= not equivalent
+        print(
+            "| %s | %.4g | [%.4g, %.4g] | ±%.4g | %.3f | %.3f | %s |"
+            % (s, diff, lo, hi, bound, d, p, "yes" if equivalent else "no")
+        )
+    sys.exit(1 if failed else 0)
+
+
+if __name__ == "__main__":
+    main()
@@ -3,6 +3,9 @@ package org.antigen.analysis;
 import cern.colt.matrix.*;
 import cern.colt.matrix.impl.*;
 import cern.colt.matrix.linalg.*;
+import java.util.*;
+import java.util.stream.*;
+import org.antigen.phenotype.Coordinates;
 
 public class SimplePCA {
 
@@ -107,118 +110,120 @@ public class SimplePCA {
     print(projected);
   }
 
-  public static double[][] project(double[][] input) {
+  // rotates points onto their principal components, in place, for any number of dimensions
+  // each entry of the list counts towards the means and covariance, so a point listed twice has
+  // twice the weight, but each distinct point is projected once
+  // the result is centered, with the first coordinate along the axis of greatest variance
+  public static void projectInPlace(List<? extends Coordinates> points) {
 
-    cern.jet.math.Functions F = cern.jet.math.Functions.functions;
-    cern.colt.matrix.linalg.Algebra alg = new cern.colt.matrix.linalg.Algebra();
-
-    DoubleMatrix2D values = new DenseDoubleMatrix2D(input);
-    int n = values.rows();
-    int m = values.columns();
-
-    // calculate mean for each dimension
-    double[] means = new double[m];
-    for (int j = 0; j < m; j++) {
-      means[j] = (values.viewColumn(j)).zSum() / (double) n;
+    int n = points.size();
+    if (n < 2) {
+      return;
     }
-
-    // substract out the mean for each dimension
-    DoubleMatrix2D centered = new DenseDoubleMatrix2D(values.toArray());
+    int m = points.get(0).getDimensions();
+
+    // means and covariance in one parallel pass
+    Moments moments =
+        IntStream.range(0, n)
+            .parallel()
+            .collect(() -> new Moments(m), (acc, i) -> acc.add(points.get(i)), Moments::merge);
+    double[] means = moments.means;
+    DoubleMatrix2D cov = new DenseDoubleMatrix2D(m, m);
+    double denom = 1 / ((double) n - 1);
     for (int j = 0; j < m; j++) {
-      (centered.viewColumn(j)).assign(F.minus(means[j]));
+      for (int k = 0; k < m; k++) {
+        cov.set(j, k, moments.comoments[j * m + k] * denom);
+      }
     }
 
-    // find covariance matrix
-    DoubleMatrix2D cov = alg.mult(centered.viewDice(), centered);
-    double denom = 1 / ((double) n - 1);
-    cov.assign(F.mult(denom));
-
     // find the Eigen decomposition of the covariance matrix
     EigenvalueDecomposition eigenSystem = new EigenvalueDecomposition(cov);
     DoubleMatrix1D eigenValues = eigenSystem.getRealEigenvalues();
     DoubleMatrix2D eigenVectors = eigenSystem.getV();
 
-    // ordering of eigenvalues
-
-    // indices of top eigenvalues
-    int firstIndex = indexOfMaximum(eigenValues);
-    double firstValue = eigenValues.get(firstIndex);
-    int secondIndex = indexOfNextToMaximum(eigenValues);
-    double secondValue = eigenValues.get(secondIndex);
-
-    // constructing feature vectors from ordered eigenvectors
-
-    DoubleMatrix1D firstVector = eigenVectors.viewColumn(firstIndex);
-    DoubleMatrix1D secondVector = eigenVectors.viewColumn(secondIndex);
-    DoubleMatrix2D featureVectors = new DenseDoubleMatrix2D(m, m);
-    (featureVectors.viewColumn(0)).assign(firstVector);
-    (featureVectors.viewColumn(1)).assign(secondVector);
-
-    // projecting original data onto new coordinate system
-
-    DoubleMatrix2D projected =
-        (alg.mult(featureVectors.viewDice(), centered.viewDice())).viewDice();
-
-    return projected.toArray();
-  }
-
-  public static double[][] project3D(double[][] input) {
-
-    cern.jet.math.Functions F = cern.jet.math.Functions.functions;
-    cern.colt.matrix.linalg.Algebra alg = new cern.colt.matrix.linalg.Algebra();
-
-    DoubleMatrix2D values = new DenseDoubleMatrix2D(input);
-    int n = values.rows();
-    int m = values.columns();
-
-    // calculate mean for each dimension
-    double[] means = new double[m];
+    // feature vectors ordered by decreasing eigenvalue, stored by row
+    Integer[] order = new Integer[m];
     for (int j = 0; j < m; j++) {
-      means[j] = (values.viewColumn(j)).zSum() / (double) n;
+      order[j] = j;
     }
-
-    // substract out the mean for each dimension
-    DoubleMatrix2D centered = new DenseDoubleMatrix2D(values.toArray());
+    Arrays.sort(order, (j1, j2) -> Double.compare(eigenValues.get(j2), eigenValues.get(j1)));
+    double[] features = new double[m * m];
     for (int j = 0; j < m; j++) {
-      (centered.viewColumn(j)).assign(F.minus(means[j]));
+      for (int k = 0; k < m; k++) {
+        features[j * m + k] = eigenVectors.get(k, order[j]);
+      }
     }
 
-    // find covariance matrix
-    DoubleMatrix2D cov = alg.mult(centered.viewDice(), centered);
-    double denom = 1 / ((double) n - 1);
-    cov.assign(F.mult(denom));
-
-    // find the Eigen decomposition of the covariance matrix
-    EigenvalueDecomposition eigenSystem = new EigenvalueDecomposition(cov);
-    DoubleMatrix1D eigenValues = eigenSystem.getRealEigenvalues();
-    DoubleMatrix2D eigenVectors = eigenSystem.getV();
-
-    // ordering of eigenvalues
-
-    // indices of top eigenvalues
-    int firstIndex = indexOfMaximum(eigenValues);
-    double firstValue = eigenValues.get(firstIndex);
-    int secondIndex = indexOfNextToMaximum(eigenValues);
-    double secondValue = eigenValues.get(secondIndex);
-    int thirdIndex = indexOfThirdToMaximum(eigenValues);
-    double thirdValue = eigenValues.get(thirdIndex);
+    // projecting each distinct point onto the new coordinate system
+    Set<Coordinates> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+    distinct.addAll(points);
+    distinct.parallelStream()
+        .forEach(
+            p -> {
+              double[] centered = new double[m];
+              for (int k = 0; k < m; k++) {
+                centered[k] = p.getTrait(k) - means[k];
+              }
+              for (int j = 0; j < m; j++) {
+                double x = 0.0;
+                for (int k = 0; k < m; k++) {
+                  x += features[j * m + k] * centered[k];
+                }
+                p.setTrait(j, x);
+              }
+            });
+  }
 
-    // constructing feature vectors from ordered eigenvectors
+  // running means and sums of cross products of deviations, mergeable (Chan et al.)
+  private static class Moments {
 
-    DoubleMatrix1D firstVector = eigenVectors.viewColumn(firstIndex);
-    DoubleMatrix1D secondVector = eigenVectors.viewColumn(secondIndex);
-    DoubleMatrix1D thirdVector = eigenVectors.viewColumn(thirdIndex);
-    DoubleMatrix2D featureVectors = new DenseDoubleMatrix2D(m, m);
-    (featureVectors.viewColumn(0)).assign(firstVector);
-    (featureVectors.viewColumn(1)).assign(secondVector);
-    (featureVectors.viewColumn(2)).assign(thirdVector);
+    private final int m;
+    private long count = 0;
+    private final double[] means;
+    private final double[] comoments; // m x m, by row
 
-    // projecting original data onto new coordinate system
+    Moments(int m) {
+      this.m = m;
+      means = new double[m];
+      comoments = new double[m * m];
+    }
 
-    DoubleMatrix2D projected =
-        (alg.mult(featureVectors.viewDice(), centered.viewDice())).viewDice();
+    void add(Coordinates p) {
+      count++;
+      double[] before = new double[m];
+      for (int j = 0; j < m; j++) {
+        double x = p.getTrait(j);
+        before[j] = x - means[j];
+        means[j] += before[j] / count;
+      }
+      for (int j = 0; j < m; j++) {
+        double after = p.getTrait(j) - means[j];
+        for (int k = 0; k < m; k++) {
+          comoments[k * m + j] += before[k] * after;
+        }
+      }
+    }
 
-    return projected.toArray();
+    void merge(Moments other) {
+      if (other.count == 0) {
+        return;
+      }
+      long total = count + other.count;
+      double weight = (double) count * other.count / total;
+      double[] delta = new double[m];
+      for (int j = 0; j < m; j++) {
+        delta[j] = other.means[j] - means[j];
+      }
+      for (int j = 0; j < m; j++) {
+        for (int k = 0; k < m; k++) {
+          comoments[j * m + k] += other.comoments[j * m + k] + delta[j] * delta[k] * weight;
+        }
+      }
+      for (int j = 0; j < m; j++) {
+        means[j] += delta[j] * other.count / total;
+      }
+      count = total;
+    }
   }
 
   public static void print(DoubleMatrix2D values) {
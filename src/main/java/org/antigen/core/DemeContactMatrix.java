@@ -0,0 +1,131 @@
+package org.antigen.core;
+
+/* Sparse weighted coupling between demes, stored in compressed sparse row (CSR) form */
+/* Row i lists the source demes whose infecteds can contact susceptibles in deme i */
+/* Weights are relative to within-deme beta, in the same units as betweenDemePro */
+
+import java.io.*;
+import java.util.*;
+
+public class DemeContactMatrix {
+
+  // fields
+  private int[] rowStart; // edges of target deme i are rowStart[i] .. rowStart[i + 1] - 1
+  private int[] sources; // source deme of each edge
+  private double[] weights; // weight of each edge
+
+  private DemeContactMatrix(int[] rowStart, int[] sources, double[] weights) {
+    this.rowStart = rowStart;
+    this.sources = sources;
+    this.weights = weights;
+  }
+
+  // every ordered pair of distinct demes coupled with weight betweenDemePro
+  public static DemeContactMatrix uniform(int demeCount, double weight) {
+    int[] rowStart = new int[demeCount + 1];
+    int[] sources = new int[demeCount * (demeCount - 1)];
+    double[] weights = new double[sources.length];
+    int edge = 0;
+    for (int i = 0; i < demeCount; i++) {
+      rowStart[i] = edge;
+      for (int j = 0; j < demeCount; j++) {
+        if (i != j) {
+          sources[edge] = j;
+          weights[edge] = weight;
+          edge++;
+        }
+      }
+    }
+    rowStart[demeCount] = edge;
+    return new DemeContactMatrix(rowStart, sources, weights);
+  }
+
+  // builds the matrix given by Parameters.demeContactFile, or the uniform matrix if none is given
+  public static DemeContactMatrix load() {
+    if (Parameters.demeContactFile == null) {
+      return uniform(Parameters.demeCount, Parameters.betweenDemePro);
+    }
+    DemeContactMatrix matrix = null;
+    try {
+      InputStream input =
+          DemeContactMatrix.class.getClassLoader().getResourceAsStream(Parameters.demeContactFile);
+      if (input == null) {
+        throw new FileNotFoundException(Parameters.demeContactFile);
+      }
+      BufferedReader in = new BufferedReader(new InputStreamReader(input));
+      matrix = read(in, Parameters.demeCount);
+      in.close();
+    } catch (IOException ex) {
+      System.out.println("Could not read in " + Parameters.demeContactFile);
+      System.exit(0);
+    }
+    return matrix;
+  }
+
+  // reads an edge list with header "source,target,weight", one edge per line
+  // demes are indexed 1..n as with initialDeme, zero weights and self edges are dropped
+  static DemeContactMatrix read(BufferedReader in, int demeCount) throws IOException {
+
+    List<int[]> edges = new ArrayList<>();
+    List<Double> edgeWeights = new ArrayList<>();
+    int[] rowCounts = new int[demeCount];
+
+    String line = in.readLine(); // ignore the header
+    while ((line = in.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty()) {
+        continue;
+      }
+      String[] items = line.split(",");
+      int source = Integer.parseInt(items[0].trim()) - 1;
+      int target = Integer.parseInt(items[1].trim()) - 1;
+      double weight = Double.parseDouble(items[2].trim());
+      if (source < 0 || source >= demeCount || target < 0 || target >= demeCount) {
+        throw new IOException("Deme index out of range in line: " + line);
+      }
+      if (source != target && weight > 0.0) {
+        edges.add(new int[] {target, source});
+        edgeWeights.add(weight);
+        rowCounts[target]++;
+      }
+    }
+
+    // scatter edges into rows, keeping file order within each row
+    int[] rowStart = new int[demeCount + 1];
+    for (int i = 0; i < demeCount; i++) {
+      rowStart[i + 1] = rowStart[i] + rowCounts[i];
+    }
+    int[] next = Arrays.copyOf(rowStart, demeCount);
+    int[] sources = new int[edges.size()];
+    double[] weights = new double[edges.size()];
+    for (int e = 0; e < edges.size(); e++) {
+      int target = edges.get(e)[0];
+      int slot = next[target]++;
+      sources[slot] = edges.get(e)[1];
+      weights[slot] = edgeWeights.get(e);
+    }
+
+    return new DemeContactMatrix(rowStart, sources, weights);
+  }
+
+  // accessors
+  public int getRowStart(int target) {
+    return rowStart[target];
+  }
+
+  public int getRowEnd(int target) {
+    return rowStart[target + 1];
+  }
+
+  public int getSource(int edge) {
+    return sources[edge];
+  }
+
+  public double getWeight(int edge) {
+    return weights[edge];
+  }
+
+  public int getEdgeCount() {
+    return sources.length;
+  }
+}
@@ -0,0 +1,99 @@
+package org.antigen.core;
+
+/* Binary min-heap of the next firing time of a fixed set of event channels */
+/* Channels are indexed 0..n-1 and keep their position in the heap, so the time of any channel */
+/* can be changed in O(log n) as needed by the next reaction method */
+
+import java.util.*;
+
+public class IndexedEventQueue {
+
+  // fields
+  private double[] times; // time of each channel, positive infinity if it never fires
+  private int[] heap; // channels in heap order
+  private int[] position; // position of each channel in the heap
+
+  // all channels start at positive infinity
+  public IndexedEventQueue(int channels) {
+    times = new double[channels];
+    heap = new int[channels];
+    position = new int[channels];
+    for (int i = 0; i < channels; i++) {
+      times[i] = Double.POSITIVE_INFINITY;
+      heap[i] = i;
+      position[i] = i;
+    }
+  }
+
+  public int size() {
+    return times.length;
+  }
+
+  // channel with the earliest time
+  public int peek() {
+    return heap[0];
+  }
+
+  // earliest time over all channels
+  public double peekTime() {
+    return times[heap[0]];
+  }
+
+  public double getTime(int channel) {
+    return times[channel];
+  }
+
+  public void setTime(int channel, double time) {
+    double old = times[channel];
+    times[channel] = time;
+    if (time < old) {
+      siftUp(position[channel]);
+    } else if (time > old) {
+      siftDown(position[channel]);
+    }
+  }
+
+  public void clear() {
+    for (int i = 0; i < times.length; i++) {
+      times[i] = Double.POSITIVE_INFINITY;
+    }
+  }
+
+  private void siftUp(int i) {
+    int channel = heap[i];
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (times[heap[parent]] <= times[channel]) {
+        break;
+      }
+      place(heap[parent], i);
+      i = parent;
+    }
+    place(channel, i);
+  }
+
+  private void siftDown(int i) {
+    int channel = heap[i];
+    int n = heap.length;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= n) {
+        break;
+      }
+      if (child + 1 < n && times[heap[child + 1]] < times[heap[child]]) {
+        child++;
+      }
+      if (times[heap[child]] >= times[channel]) {
+        break;
+      }
+      place(heap[child], i);
+      i = child;
+    }
+    place(channel, i);
+  }
+
+  private void place(int channel, int i) {
+    heap[i] = channel;
+    position[channel] = i;
+  }
+}
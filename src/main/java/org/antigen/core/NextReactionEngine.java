@@ -0,0 +1,122 @@
+package org.antigen.core;
+
+/* Exact event-driven alternative to the fixed-step Poisson updates of HostPopulation.stepForward */
+/* Gibson-Bruck next reaction method: every (deme, event channel) pair keeps the absolute time */
+/* of its next firing in an indexed queue. After an event, channels whose rate changed have */
+/* their remaining waiting time rescaled instead of redrawn, so each event costs one random */
+/* waiting time plus O(log n) queue updates. */
+/* Rates that depend on time (seasonality, the sampling window) are refreshed every deltaT, */
+/* so deltaT only sets how often these are updated and output is written */
+
+import java.util.*;
+import org.antigen.host.HostPopulation;
+
+public class NextReactionEngine {
+
+  // fields
+  private List<HostPopulation> demes;
+  private DemeContactMatrix contactMatrix;
+  private IndexedEventQueue queue;
+  private double[] rates; // current rate of each channel, channel = deme * EVENTS + event
+  private int[][] importTargets; // demes whose import rate depends on the infecteds of each deme
+  private boolean started = false;
+
+  public NextReactionEngine(List<HostPopulation> demes, DemeContactMatrix contactMatrix) {
+    this.demes = demes;
+    this.contactMatrix = contactMatrix;
+    int channels = demes.size() * HostPopulation.EVENTS;
+    queue = new IndexedEventQueue(channels);
+    rates = new double[channels];
+
+    List<Set<Integer>> targets = new ArrayList<>();
+    for (int i = 0; i < demes.size(); i++) {
+      targets.add(new TreeSet<>());
+    }
+    for (int target = 0; target < demes.size(); target++) {
+      for (int e = contactMatrix.getRowStart(target); e < contactMatrix.getRowEnd(target); e++) {
+        targets.get(contactMatrix.getSource(e)).add(target);
+      }
+    }
+    importTargets = new int[demes.size()][];
+    for (int i = 0; i < demes.size(); i++) {
+      importTargets[i] = targets.get(i).stream().mapToInt(Integer::intValue).toArray();
+    }
+  }
+
+  // fire every event in [day, day + deltaT) in time order, leaving Parameters.day at day + deltaT
+  public void advance() {
+    double now = Parameters.day;
+    double until = now + Parameters.deltaT;
+    if (!started) {
+      for (int c = 0; c < rates.length; c++) {
+        rates[c] = rate(c);
+        queue.setTime(c, nextTime(now, rates[c]));
+      }
+      started = true;
+    } else {
+      for (int c = 0; c < rates.length; c++) {
+        update(c, now);
+      }
+    }
+
+    while (queue.peekTime() < until) {
+      int c = queue.peek();
+      double t = queue.peekTime();
+      Parameters.day = t;
+      int deme = c / HostPopulation.EVENTS;
+      demes.get(deme).fireEvent(c % HostPopulation.EVENTS, demes, contactMatrix);
+
+      // the fired channel draws a fresh waiting time
+      rates[c] = rate(c);
+      queue.setTime(c, nextTime(t, rates[c]));
+
+      // only the counts of this deme changed
+      int first = deme * HostPopulation.EVENTS;
+      for (int e = 0; e < HostPopulation.EVENTS; e++) {
+        if (first + e != c) {
+          update(first + e, t);
+        }
+      }
+      for (int target : importTargets[deme]) {
+        update(target * HostPopulation.EVENTS + HostPopulation.EVENT_IMPORT, t);
+      }
+    }
+    Parameters.day = until;
+  }
+
+  // forget all pending event times, as after the simulation is reset
+  public void reset() {
+    queue.clear();
+    started = false;
+  }
+
+  private double rate(int c) {
+    HostPopulation hp = demes.get(c / HostPopulation.EVENTS);
+    return hp.getEventRate(c % HostPopulation.EVENTS, demes, contactMatrix);
+  }
+
+  // recompute the rate of a channel at time t and rescale its remaining waiting time
+  private void update(int c, double t) {
+    double oldRate = rates[c];
+    double newRate = rate(c);
+    if (newRate == oldRate) {
+      return;
+    }
+    rates[c] = newRate;
+    double oldTime = queue.getTime(c);
+    if (newRate <= 0.0) {
+      queue.setTime(c, Double.POSITIVE_INFINITY);
+    } else if (oldRate <= 0.0 || oldTime == Double.POSITIVE_INFINITY) {
+      queue.setTime(c, nextTime(t, newRate));
+    } else {
+      queue.setTime(c, t + (oldRate / newRate) * (oldTime - t));
+    }
+  }
+
+  private static double nextTime(double t, double rate) {
+    if (rate <= 0.0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return t + Random.nextExponential(1.0 / rate);
+  }
+}
@@ -0,0 +1,22 @@
+/* A way of encoding output files, such as compression, chosen by the outputCodec parameter */
+/* Implementations listed in META-INF/services/org.antigen.core.OutputCodec on the classpath */
+/* are registered by OutputCodecs alongside the built in codecs */
+
+package org.antigen.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public interface OutputCodec {
+
+  // value of outputCodec that selects this codec
+  String getName();
+
+  // appended to output file names, empty if files keep their names
+  String getExtension();
+
+  // stream that encodes to out, closing it closes out
+  // streams written one after another to a file must decode as a single stream, as gzip members
+  // do, since files such as .summary are appended to
+  OutputStream wrap(OutputStream out) throws IOException;
+}
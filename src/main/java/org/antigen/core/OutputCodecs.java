@@ -0,0 +1,132 @@
+/* Registry of output codecs, with "none" and "gzip" built in */
+/* Output files are opened through here so that they are written with the codec named by */
+/* outputCodec, and read back through here so that gzip output is decompressed */
+
+package org.antigen.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.zip.GZIPInputStream;
+
+public class OutputCodecs {
+
+  public static final String NONE = "none";
+  public static final String GZIP = "gzip";
+
+  private static final Map<String, OutputCodec> codecs = new LinkedHashMap<>();
+
+  static {
+    register(new NoCodec());
+    register(new GzipCodec());
+    for (OutputCodec codec : ServiceLoader.load(OutputCodec.class)) {
+      register(codec);
+    }
+  }
+
+  // later registrations replace earlier ones of the same name
+  public static synchronized void register(OutputCodec codec) {
+    codecs.put(codec.getName(), codec);
+  }
+
+  // codec registered as name, null if there is none
+  public static synchronized OutputCodec get(String name) {
+    return codecs.get(name);
+  }
+
+  public static synchronized String[] getNames() {
+    return codecs.keySet().toArray(new String[0]);
+  }
+
+  // the codec named by outputCodec
+  public static OutputCodec current() {
+    return get(Parameters.outputCodec);
+  }
+
+  // name fileName is written to under the current codec
+  public static String fileName(String fileName) {
+    return fileName + current().getExtension();
+  }
+
+  // buffered stream writing fileName through the current codec, replacing any earlier file
+  public static PrintStream open(String fileName) throws IOException {
+    File file = new File(fileName(fileName));
+    file.delete();
+    OutputStream out = current().wrap(new FileOutputStream(file));
+    return new PrintStream(new BufferedOutputStream(out, 1 << 16));
+  }
+
+  // buffered stream adding to the end of fileName through the current codec
+  public static PrintStream append(String fileName) throws IOException {
+    OutputStream out = current().wrap(new FileOutputStream(fileName(fileName), true));
+    return new PrintStream(new BufferedOutputStream(out, 1 << 16));
+  }
+
+  // reader for fileName as written under the current codec or, failing that, any other, such as
+  // a checkpoint written by an earlier run
+  public static BufferedReader read(String fileName) throws IOException {
+    File file = new File(fileName(fileName));
+    for (String name : getNames()) {
+      if (!file.exists()) {
+        file = new File(fileName + get(name).getExtension());
+      }
+    }
+    if (!file.exists()) {
+      throw new FileNotFoundException(fileName);
+    }
+    return new BufferedReader(new InputStreamReader(decode(new FileInputStream(file))), 1 << 16);
+  }
+
+  // in, decompressed if it starts with the gzip magic bytes, as other codecs cannot be read back
+  public static InputStream decode(InputStream in) throws IOException {
+    BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+    buffered.mark(2);
+    int first = buffered.read();
+    int second = buffered.read();
+    buffered.reset();
+    if (first == 0x1f && second == 0x8b) {
+      return new BufferedInputStream(new GZIPInputStream(buffered, 1 << 16), 1 << 16);
+    }
+    return buffered;
+  }
+
+  private static class NoCodec implements OutputCodec {
+    public String getName() {
+      return NONE;
+    }
+
+    public String getExtension() {
+      return "";
+    }
+
+    public OutputStream wrap(OutputStream out) {
+      return out;
+    }
+  }
+
+  private static class GzipCodec implements OutputCodec {
+    public String getName() {
+      return GZIP;
+    }
+
+    public String getExtension() {
+      return ".gz";
+    }
+
+    public OutputStream wrap(OutputStream out) {
+      return new ParallelGzipOutputStream(out);
+    }
+  }
+}
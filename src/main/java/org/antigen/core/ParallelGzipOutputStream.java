@@ -0,0 +1,132 @@
+/* Gzip output compressed in blocks on a pool of threads */
+/* Each block becomes its own gzip member, and concatenated members read back as one stream with */
+/* gunzip or GZIPInputStream, so the thread writing output only copies bytes into blocks */
+/* A bounded number of blocks are in flight, written out in order as they complete */
+
+package org.antigen.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+public class ParallelGzipOutputStream extends OutputStream {
+
+  static final int BLOCK_SIZE = 1 << 20;
+  private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+  // shared by all streams, daemon threads so that an unclosed stream does not hold up exit
+  private static ExecutorService pool = null;
+
+  private final OutputStream out;
+  private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+  private byte[] block = new byte[BLOCK_SIZE];
+  private int count = 0;
+  private boolean submitted = false; // whether any member has been compressed
+  private boolean closed = false;
+
+  public ParallelGzipOutputStream(OutputStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (count == BLOCK_SIZE) {
+      submit();
+    }
+    block[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (count == BLOCK_SIZE) {
+        submit();
+      }
+      int n = Math.min(len, BLOCK_SIZE - count);
+      System.arraycopy(b, off, block, count, n);
+      count += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  // compresses any partial block, so frequent flushing gives many small members
+  @Override
+  public void flush() throws IOException {
+    if (count > 0) {
+      submit();
+    }
+    while (!pending.isEmpty()) {
+      writeNext();
+    }
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      flush();
+      if (!submitted) {
+        // an empty stream is still one gzip member, as zero bytes are not valid gzip
+        out.write(compress(block, 0));
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private void submit() throws IOException {
+    byte[] data = block;
+    int length = count;
+    submitted = true;
+    pending.addLast(getPool().submit(() -> compress(data, length)));
+    block = new byte[BLOCK_SIZE];
+    count = 0;
+    while (pending.size() > 2 * THREADS) {
+      writeNext();
+    }
+  }
+
+  private void writeNext() throws IOException {
+    try {
+      out.write(pending.pollFirst().get());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException(ex);
+    } catch (ExecutionException ex) {
+      throw new IOException(ex.getCause());
+    }
+  }
+
+  static byte[] compress(byte[] data, int length) throws IOException {
+    ByteArrayOutputStream member = new ByteArrayOutputStream(length / 4 + 64);
+    try (GZIPOutputStream gzip = new GZIPOutputStream(member, 1 << 16)) {
+      gzip.write(data, 0, length);
+    }
+    return member.toByteArray();
+  }
+
+  private static synchronized ExecutorService getPool() {
+    if (pool == null) {
+      pool =
+          Executors.newFixedThreadPool(
+              THREADS,
+              r -> {
+                Thread thread = new Thread(r, "output-gzip");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    return pool;
+  }
+}
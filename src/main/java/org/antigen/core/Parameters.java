@@ -30,19 +30,44 @@ public class Parameters {
   // interval
   public static int netauWindow = 100; // window in days to calculate Ne*tau
   public static boolean repeatSim = true; // repeat simulation until endDay is reached?
+  public static int fadeoutThreshold =
+      0; // with repeatSim, restart once this few infecteds are likely to die out, 0 is off
+  public static double fadeoutProbability =
+      0.99; // extinction probability at which an epidemic counts as fading out
+  public static double fadeoutWindow =
+      30.0; // days an epidemic must keep fading out before it is restarted
   public static boolean immunityReconstruction =
       false; // whether to print immunity reconstruction to out.immunity
   public static boolean memoryProfiling = false; // requires -javaagent:classmexer.jar to run
+  public static boolean internPhenotypes =
+      false; // whether to share a single object between equal phenotypes
   public static double yearsFromMK = 1.0;
   public static boolean pcaSamples = false; // whether to rotate and flip virus tree
   public static boolean reducedOutput =
       false; // whether to output only out.summary and out.timeseries
+  public static int snapshotStep = 0; // write a tree snapshot every X days during the run, 0 is off
+  public static final String TAU_LEAP = "tauLeap";
+  public static final String NEXT_REACTION = "nextReaction";
+  public static String engine =
+      TAU_LEAP; // tauLeap draws Poisson event counts every deltaT, nextReaction is exact
   public static boolean detailedOutput =
       false; // whether to output out.hosts and out.viruses files enabling
   // checkpointing
+  public static final String HOST_DUMP_TEXT = "text";
+  public static final String HOST_DUMP_BINARY = "binary";
+  public static String hostDumpFormat =
+      HOST_DUMP_TEXT; // detailedOutput host file, text is out.hosts, binary is out.hosts.bin
   public static boolean restartFromCheckpoint = false; // whether to load population from out.hosts
   public static String outPath = "output/"; // path to dump output files.
   public static String outPrefix = "run-"; // suffix for output files.
+  public static final String FASTA_FULL = "full";
+  public static final String FASTA_DELTA = "delta";
+  public static String fastaFormat =
+      FASTA_FULL; // full writes .fasta, delta writes .dfasta with each tip as changes to the last
+  public static boolean recordMutations =
+      false; // whether to record substitutions and write them per branch to .mutations
+  public static String outputCodec =
+      OutputCodecs.NONE; // codec output files are written with, none or gzip unless more are added
   public static int fitnessSampleSize =
       10000; // number of random hosts to sample for average infection risk
 
@@ -57,6 +82,8 @@ public class Parameters {
   public static double deathRate =
       0.000091; // in deaths per individual per day, 1/30 years = 0.000091
   public static boolean swapDemography = true; // whether to keep overall population size constant
+  public static boolean hybridDemography =
+      false; // whether to hold naive susceptibles as a count and skip swaps that change nothing
 
   // epidemiological parameters
   public static int initialI = 10; // in individuals
@@ -65,6 +92,9 @@ public class Parameters {
   public static double beta = 0.36; // 0.3 // in contacts per individual per day
   public static double nu = 0.2; // 0.2 // in recoveries per individual per day
   public static double betweenDemePro = 0.0005; // relative to within-deme beta
+  public static String demeContactFile =
+      null; // name of csv edge list (source,target,weight) of between-deme contact weights,
+  // replaces betweenDemePro for all deme pairs when given
 
   // transcendental immunity
   public static boolean transcendental = false; // whether to include a general recovered class
@@ -78,12 +108,20 @@ public class Parameters {
 
   // phenotype parameters
   public static String phenotypeSpace =
-      "geometric"; // options include: "geometric", "geometric3d", "geometric10d"
+      "geometric"; // options include: "geometric", "geometric3d", "geometric10d", "geometricND"
+  public static int phenotypeDimensions =
+      3; // number of dimensions when phenotypeSpace is geometricND
   public static double muPhenotype = 0.005; // in mutations per individual per day
   public static boolean waning = false; // whether to allow waning of host immunity
   public static double waningRate =
       0.01; // rate per day of a host removing a random phenotype from their immune
   // history
+  public static double historyMergeRadius =
+      -1.0; // new history entries within this distance replace the closest entry, negative is off
+  public static int maxHistoryLength =
+      0; // cap on history length, merging the closest pair when exceeded, 0 is unbounded
+  public static boolean offHeapHosts =
+      false; // whether to hold susceptible hosts in memory-mapped files, requires maxHistoryLength
 
   // parameters specific to GeometricPhenotype
   public static double smithConversion = 0.1; // multiplier to distance to give cross-immunity
@@ -146,6 +184,11 @@ public class Parameters {
     return baseline + amplitude * Math.cos(2 * Math.PI * getDate() + 2 * Math.PI * offset);
   }
 
+  // highest seasonality over the year
+  public static double getPeakSeasonality(int index) {
+    return demeBaselines[index] + Math.abs(demeAmplitudes[index]);
+  }
+
   // initialize
   public static void initialize() {
     urVirus = new Virus();
@@ -203,12 +246,24 @@ public class Parameters {
       if (map.get("repeatSim") != null) {
         repeatSim = (boolean) map.get("repeatSim");
       }
+      if (map.get("fadeoutThreshold") != null) {
+        fadeoutThreshold = (int) map.get("fadeoutThreshold");
+      }
+      if (map.get("fadeoutProbability") != null) {
+        fadeoutProbability = (double) map.get("fadeoutProbability");
+      }
+      if (map.get("fadeoutWindow") != null) {
+        fadeoutWindow = (double) map.get("fadeoutWindow");
+      }
       if (map.get("immunityReconstruction") != null) {
         immunityReconstruction = (boolean) map.get("immunityReconstruction");
       }
       if (map.get("memoryProfiling") != null) {
         memoryProfiling = (boolean) map.get("memoryProfiling");
       }
+      if (map.get("internPhenotypes") != null) {
+        internPhenotypes = (boolean) map.get("internPhenotypes");
+      }
       if (map.get("yearsFromMK") != null) {
         yearsFromMK = (double) map.get("yearsFromMK");
       }
@@ -218,9 +273,50 @@ public class Parameters {
       if (map.get("reducedOutput") != null) {
         reducedOutput = (boolean) map.get("reducedOutput");
       }
+      if (map.get("snapshotStep") != null) {
+        snapshotStep = (int) map.get("snapshotStep");
+      }
+      if (map.get("engine") != null) {
+        engine = (String) map.get("engine");
+        if (!TAU_LEAP.equals(engine) && !NEXT_REACTION.equals(engine)) {
+          System.out.println("Unknown engine: " + engine);
+          System.exit(0);
+        }
+      }
       if (map.get("detailedOutput") != null) {
         detailedOutput = (boolean) map.get("detailedOutput");
       }
+      if (map.get("fastaFormat") != null) {
+        fastaFormat = (String) map.get("fastaFormat");
+        if (!FASTA_FULL.equals(fastaFormat) && !FASTA_DELTA.equals(fastaFormat)) {
+          System.out.println("Unknown fastaFormat: " + fastaFormat);
+          System.exit(0);
+        }
+      }
+      if (map.get("recordMutations") != null) {
+        recordMutations = (boolean) map.get("recordMutations");
+      }
+      if (map.get("outputCodec") != null) {
+        outputCodec = (String) map.get("outputCodec");
+        if (OutputCodecs.get(outputCodec) == null) {
+          System.out.println(
+              "Unknown outputCodec: "
+                  + outputCodec
+                  + ", options are "
+                  + String.join(", ", OutputCodecs.getNames()));
+          System.exit(0);
+        }
+      }
+      if (map.get("hostDumpFormat") != null) {
+        hostDumpFormat = (String) map.get("hostDumpFormat");
+        if (!HOST_DUMP_TEXT.equals(hostDumpFormat) && !HOST_DUMP_BINARY.equals(hostDumpFormat)) {
+          System.out.println(
+              "Unknown hostDumpFormat: "
+                  + hostDumpFormat
+                  + ", options are text and binary, compressed with outputCodec");
+          System.exit(0);
+        }
+      }
       if (map.get("restartFromCheckpoint") != null) {
         restartFromCheckpoint = (boolean) map.get("restartFromCheckpoint");
       }
@@ -242,6 +338,9 @@ public class Parameters {
       if (map.get("swapDemography") != null) {
         swapDemography = (boolean) map.get("swapDemography");
       }
+      if (map.get("hybridDemography") != null) {
+        hybridDemography = (boolean) map.get("hybridDemography");
+      }
       if (map.get("initialI") != null) {
         initialI = (int) map.get("initialI");
       }
@@ -260,6 +359,9 @@ public class Parameters {
       if (map.get("betweenDemePro") != null) {
         betweenDemePro = (double) map.get("betweenDemePro");
       }
+      if (map.get("demeContactFile") != null) {
+        demeContactFile = (String) map.get("demeContactFile");
+      }
       if (map.get("transcendental") != null) {
         transcendental = (boolean) map.get("transcendental");
       }
@@ -281,6 +383,9 @@ public class Parameters {
       if (map.get("phenotypeSpace") != null) {
         phenotypeSpace = (String) map.get("phenotypeSpace");
       }
+      if (map.get("phenotypeDimensions") != null) {
+        phenotypeDimensions = (int) map.get("phenotypeDimensions");
+      }
       if (map.get("muPhenotype") != null) {
         muPhenotype = (double) map.get("muPhenotype");
       }
@@ -290,6 +395,19 @@ public class Parameters {
       if (map.get("waningRate") != null) {
         waningRate = (double) map.get("waningRate");
       }
+      if (map.get("historyMergeRadius") != null) {
+        historyMergeRadius = (double) map.get("historyMergeRadius");
+      }
+      if (map.get("maxHistoryLength") != null) {
+        maxHistoryLength = (int) map.get("maxHistoryLength");
+      }
+      if (map.get("offHeapHosts") != null) {
+        offHeapHosts = (boolean) map.get("offHeapHosts");
+        if (offHeapHosts && maxHistoryLength <= 0) {
+          System.out.println("offHeapHosts requires maxHistoryLength to fix the record width");
+          System.exit(0);
+        }
+      }
       if (map.get("smithConversion") != null) {
         smithConversion = (double) map.get("smithConversion");
       }
@@ -403,15 +521,10 @@ public class Parameters {
         // Check if the number of rows in DMSFile is equal to the length of the protein
         // sequence.
         int numberOfSites = startingSequence.length() / 3;
-        int dmsDataLineCount = 0;
-
-        Scanner DMSData =
-            new Scanner(Parameters.class.getClassLoader().getResourceAsStream(Parameters.DMSFile));
-        DMSData.nextLine(); // ignore the header
-        while (DMSData.hasNextLine()) {
-          dmsDataLineCount++;
-          DMSData.nextLine();
-        }
+        int dmsDataLineCount =
+            Biology.readPreferences(
+                    Parameters.class.getClassLoader().getResourceAsStream(Parameters.DMSFile))
+                .length;
 
         if (dmsDataLineCount != numberOfSites) {
           System.out.println(
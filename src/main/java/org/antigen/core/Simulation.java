@@ -5,6 +5,7 @@ package org.antigen.core;
 import com.javamex.classmexer.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import org.antigen.analysis.*;
 import org.antigen.host.*;
 import org.antigen.phenotype.*;
@@ -13,6 +14,8 @@ import org.antigen.virus.*;
 public class Simulation {
   // fields
   private List<HostPopulation> demes = new ArrayList<>();
+  private DemeContactMatrix contactMatrix;
+  private NextReactionEngine nextReactionEngine = null; // used when engine is nextReaction
   private double diversity;
   private double tmrca;
   private double netau;
@@ -30,6 +33,15 @@ public class Simulation {
   private List<Double> rList = new ArrayList<>();
   private List<Double> casesList = new ArrayList<>();
 
+  // writes tree snapshots in the background, created on the first snapshot
+  private ExecutorService snapshotExecutor = null;
+  private Future<?> pendingSnapshot = null; // last snapshot submitted, at most one is queued
+  private double fadeoutSince = -1.0; // day the epidemic started to look like fading out, or -1
+
+  // buffers for evaluating one phenotype against many host histories
+  private HistoryBatch riskBatch = new HistoryBatch();
+  private double[] sampleRisks = new double[0];
+
   // constructor
   public Simulation() {
     for (int i = 0; i < Parameters.demeCount; i++) {
@@ -41,6 +53,10 @@ public class Simulation {
       }
       demes.add(hp);
     }
+    contactMatrix = DemeContactMatrix.load();
+    if (Parameters.NEXT_REACTION.equals(Parameters.engine)) {
+      nextReactionEngine = new NextReactionEngine(demes, contactMatrix);
+    }
   }
 
   // methods
@@ -72,6 +88,45 @@ public class Simulation {
     return count;
   }
 
+  // probability that the current infecteds all die out, each infected starts a branching process
+  // whose geometric offspring distribution with mean R goes extinct with probability 1/R
+  // R uses each deme's seasonal peak and counts every susceptible as fully susceptible, so a
+  // seasonal trough does not count as extinction and the estimate errs towards continuing the run
+  public double getExtinctionProbability() {
+    int infecteds = getI();
+    if (infecteds == 0) {
+      return 1.0;
+    }
+    double transmission = 0.0;
+    for (int i = 0; i < Parameters.demeCount; i++) {
+      HostPopulation hp = demes.get(i);
+      transmission += hp.getI() * hp.getPrS() * Parameters.beta * Parameters.getPeakSeasonality(i);
+    }
+    double removal = infecteds * (Parameters.nu + Parameters.deathRate);
+    return extinctionProbability(transmission / removal, infecteds);
+  }
+
+  static double extinctionProbability(double r, int infecteds) {
+    if (r <= 1.0) {
+      return 1.0;
+    }
+    return Math.pow(1.0 / r, infecteds);
+  }
+
+  // whether a small epidemic has been likely enough to die out for fadeoutWindow days that it can
+  // be restarted now, so that a brief dip, as when R is close to 1, does not end a viable run
+  boolean isFadingOut() {
+    if (getI() > Parameters.fadeoutThreshold
+        || getExtinctionProbability() < Parameters.fadeoutProbability) {
+      fadeoutSince = -1.0;
+      return false;
+    }
+    if (fadeoutSince < 0.0) {
+      fadeoutSince = Parameters.day;
+    }
+    return Parameters.day - fadeoutSince >= Parameters.fadeoutWindow;
+  }
+
   public int getR() {
     int count = 0;
     for (int i = 0; i < Parameters.demeCount; i++) {
@@ -163,23 +218,70 @@ public class Simulation {
   // Get average infection risk of a phenotype amongst a given sample size
   public double getAverageRisk(Phenotype p) {
     double sampleSize = (double) Parameters.fitnessSampleSize;
-    double averageRisk = 0;
+    if (sampleRisks.length < Parameters.fitnessSampleSize) {
+      sampleRisks = new double[Parameters.fitnessSampleSize];
+    }
+    riskBatch.clear();
     for (int i = 0; i < Parameters.fitnessSampleSize; i++) {
       Host h = getRandomHost();
-      Phenotype[] history = h.getHistory();
-      averageRisk += p.riskOfInfection(history);
+      riskBatch.add(h.getHistoryBuffer(), h.getHistoryLength());
+    }
+    p.riskOfInfection(riskBatch, sampleRisks, 0);
+    riskBatch.clear();
+    double averageRisk = 0;
+    for (int i = 0; i < Parameters.fitnessSampleSize; i++) {
+      averageRisk += sampleRisks[i];
     }
     averageRisk /= sampleSize;
     return averageRisk;
   }
 
+  // copy the genealogy of the tips sampled so far and write it out while stepping continues
+  // skipped while the previous snapshot is still being written, so copies cannot pile up
+  private void snapshotTree() {
+    if (pendingSnapshot != null && !pendingSnapshot.isDone()) {
+      System.out.println("Skipping tree snapshot, the previous one is still being written");
+      return;
+    }
+    List<Virus> tips = VirusTree.getTips();
+    if (tips.isEmpty()) {
+      return;
+    }
+    TreeSnapshot snapshot = new TreeSnapshot(tips, Parameters.getDate());
+    String stem = VirusTree.filenameStem + ".snapshot" + (int) Parameters.day;
+    if (snapshotExecutor == null) {
+      snapshotExecutor = Executors.newSingleThreadExecutor();
+    }
+    pendingSnapshot =
+        snapshotExecutor.submit(
+            () -> {
+              try {
+                snapshot.print(stem);
+              } catch (IOException ex) {
+                System.out.println("Could not write to file");
+                System.exit(0);
+              }
+            });
+  }
+
+  // wait for snapshots still being written, before the tree is modified at the end of the run
+  private void finishSnapshots() {
+    if (snapshotExecutor != null) {
+      snapshotExecutor.shutdown();
+      try {
+        snapshotExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      snapshotExecutor = null;
+      pendingSnapshot = null;
+    }
+  }
+
   public void printImmunity() {
 
     try {
-      File immunityFile = new File("out.immunity");
-      immunityFile.delete();
-      immunityFile.createNewFile();
-      PrintStream immunityStream = new PrintStream(immunityFile);
+      PrintStream immunityStream = OutputCodecs.open("out.immunity");
 
       for (double x = VirusTree.xMin; x <= VirusTree.xMax; x += 0.5) {
         for (double y = VirusTree.yMin; y <= VirusTree.yMax; y += 0.5) {
@@ -200,11 +302,20 @@ public class Simulation {
 
   public void printHostPopulation() {
 
+    if (Parameters.HOST_DUMP_BINARY.equals(Parameters.hostDumpFormat)) {
+      try {
+        File dumpFile = new File(OutputCodecs.fileName("out.hosts.bin"));
+        dumpFile.delete();
+        HostDump.write(demes, dumpFile, OutputCodecs.current());
+      } catch (IOException ex) {
+        System.out.println("Could not write to file");
+        System.exit(0);
+      }
+      return;
+    }
+
     try {
-      File hostFile = new File("out.hosts");
-      hostFile.delete();
-      hostFile.createNewFile();
-      PrintStream hostStream = new PrintStream(hostFile);
+      PrintStream hostStream = OutputCodecs.open("out.hosts");
       for (int i = 0; i < Parameters.demeCount; i++) {
         HostPopulation hp = demes.get(i);
         hp.printHostPopulation(hostStream);
@@ -266,6 +377,30 @@ public class Simulation {
         noBytes = MemoryUtil.deepMemoryUsageOf(VirusTree.getTips());
         System.out.println("Virus tree: " + noBytes);
       }
+      if (Parameters.internPhenotypes) {
+        // each hit is a duplicate phenotype that was not kept
+        long hits = PhenotypePool.getHits();
+        noBytes = hits * MemoryUtil.deepMemoryUsageOf(Parameters.urImmunity);
+        System.out.println(
+            "Interned phenotypes: "
+                + PhenotypePool.size()
+                + " pooled, "
+                + hits
+                + " of "
+                + PhenotypePool.getLookups()
+                + " lookups shared, "
+                + noBytes
+                + " bytes saved");
+      }
+      if (Parameters.offHeapHosts) {
+        // deep usage of a host population above covers its mapped blocks only as buffer objects
+        System.out.println(
+            "Off-heap susceptibles: "
+                + getS()
+                + " hosts, "
+                + MappedHostList.getPhenotypeCount()
+                + " phenotype handles");
+      }
     }
   }
 
@@ -303,10 +438,7 @@ public class Simulation {
   public void printSummary() {
 
     try {
-      File summaryFile = new File("out.summary");
-      summaryFile.delete();
-      summaryFile.createNewFile();
-      PrintStream summaryStream = new PrintStream(summaryFile);
+      PrintStream summaryStream = OutputCodecs.open("out.summary");
       summaryStream.printf("parameter\tfull\n");
       summaryStream.printf("endDate\t%.4f\n", Parameters.getDate());
       summaryStream.printf("diversity\t%.4f\n", mean(diversityList));
@@ -338,6 +470,8 @@ public class Simulation {
     return mean;
   }
 
+  // genealogical statistics are estimated from random pairs of infections, serial interval is
+  // the exact mean over current infections, maintained as infections start and end
   public void updateDiversity() {
 
     diversity = 0.0;
@@ -363,15 +497,24 @@ public class Simulation {
         antigenicDiversity += vA.antigenicDistance(vB);
         coalOpp += coalWindow;
         coalCount += vA.coalescence(vB, coalWindow);
-        serialInterval += vA.serialInterval();
       }
     }
 
     diversity /= sampleCount;
     tmrca /= 2.0;
     netau = coalOpp / coalCount;
-    serialInterval /= sampleCount;
     antigenicDiversity /= sampleCount;
+
+    // serial interval reuses the running sums kept by each deme
+    double serialIntervalSum = 0.0;
+    for (int i = 0; i < Parameters.demeCount; i++) {
+      HostPopulation hp = demes.get(i);
+      serialIntervalSum += hp.getSerialIntervalSum();
+    }
+    int infecteds = getI();
+    if (infecteds > 0) {
+      serialInterval = serialIntervalSum / infecteds;
+    }
   }
 
   public void pushLists() {
@@ -396,15 +539,15 @@ public class Simulation {
 
   public void stepForward() {
 
+    if (nextReactionEngine != null) {
+      nextReactionEngine.advance();
+      return;
+    }
+
     for (int i = 0; i < Parameters.demeCount; i++) {
       HostPopulation hp = demes.get(i);
       hp.stepForward();
-      for (int j = 0; j < Parameters.demeCount; j++) {
-        if (i != j) {
-          HostPopulation hpOther = demes.get(j);
-          hp.betweenDemeContact(hpOther);
-        }
-      }
+      hp.betweenDemeContact(demes, contactMatrix);
     }
 
     Parameters.day += Parameters.deltaT;
@@ -416,14 +559,8 @@ public class Simulation {
 
       File outDirs = new File(Parameters.outPath);
       outDirs.mkdirs();
-      File historyFile = new File("out.histories");
-      historyFile.delete();
-      historyFile.createNewFile();
-      PrintStream historyStream = new PrintStream(historyFile);
-      File seriesFile = new File("out.timeseries");
-      seriesFile.delete();
-      seriesFile.createNewFile();
-      PrintStream seriesStream = new PrintStream(seriesFile);
+      PrintStream historyStream = OutputCodecs.open("out.histories");
+      PrintStream seriesStream = OutputCodecs.open("out.timeseries");
       System.out.println(
           "day\tdiversity\ttmrca\tnetau\tserialInterval\tantigenicDiversity\tN\tS\tI\tR\tcases");
       printHeader(seriesStream);
@@ -431,15 +568,27 @@ public class Simulation {
       while (Parameters.day < (double) Parameters.endDay) {
 
         if (Parameters.day % (double) Parameters.printStep < Parameters.deltaT) {
+          VirusTree.flush();
           updateDiversity();
           printState();
           if (Parameters.day > Parameters.burnin) {
             printState(seriesStream);
+            if (OutputCodecs.NONE.equals(Parameters.outputCodec)) {
+              // uncompressed, the series can be followed as the run goes
+              seriesStream.flush();
+            }
             pushLists();
           }
           resetCases();
         }
 
+        // tree snapshot if needed
+        if (Parameters.snapshotStep > 0
+            && Parameters.day > Parameters.burnin
+            && Parameters.day % (double) Parameters.snapshotStep < Parameters.deltaT) {
+          snapshotTree();
+        }
+
         // print immunity if needed
         if (Parameters.sampleHostImmunity
             && Parameters.day % (double) Parameters.printHostImmunityStep < Parameters.deltaT) {
@@ -448,12 +597,11 @@ public class Simulation {
           printHostImmuneHistories(historyStream);
         }
 
-        if (getI() == 0) {
+        if (getI() == 0 || (Parameters.repeatSim && isFadingOut())) {
           if (Parameters.repeatSim) {
             reset();
-            seriesFile.delete();
-            seriesFile.createNewFile();
-            seriesStream = new PrintStream(seriesFile);
+            seriesStream.close();
+            seriesStream = OutputCodecs.open("out.timeseries");
             printHeader(seriesStream);
           } else {
             break;
@@ -465,6 +613,7 @@ public class Simulation {
 
       seriesStream.close();
       historyStream.close();
+      finishSnapshots();
 
       writeDataCSV();
     } catch (IOException ex) {
@@ -492,7 +641,7 @@ public class Simulation {
 
     // Summary
     printSummary();
-    VirusTree.printMKSummary(); // appends to out.summary
+    VirusTree.printMKSummary(); // appends to .summary
 
     if (!Parameters.reducedOutput) {
 
@@ -501,6 +650,12 @@ public class Simulation {
       VirusTree.printTips();
       System.out.println("Writing branches file...");
       VirusTree.printBranches();
+      if (Parameters.recordMutations && Parameters.phenotypeSpace.equals("geometricSeq")) {
+        System.out.println("Writing mutations file...");
+        VirusTree.printMutations();
+      }
+      System.out.println("Writing MK by year file...");
+      VirusTree.printMKByYear();
       System.out.println("Writing FASTA file...");
       VirusTree.printFASTA();
       System.out.println("Writing newick tree file...");
@@ -521,12 +676,17 @@ public class Simulation {
         printHostPopulation();
       }
     }
+
+    // off-heap hosts hold a mapped file until closed
+    for (int i = 0; i < Parameters.demeCount; i++) {
+      demes.get(i).close();
+    }
   }
 
-  private void writeDataCSV() throws FileNotFoundException {
+  private void writeDataCSV() throws IOException {
     // Creates csv file from the most recent out.timeseries (i.e., not from example/out.timeseries)
-    Scanner input = new Scanner(new File("out.timeseries"));
-    PrintStream output = new PrintStream("out_timeseries.csv");
+    Scanner input = new Scanner(OutputCodecs.read("out.timeseries"));
+    PrintStream output = OutputCodecs.open("out_timeseries.csv");
 
     // Check for next line
     while (input.hasNextLine()) {
@@ -544,15 +704,22 @@ public class Simulation {
       }
       output.println();
     }
+    input.close();
+    output.close();
   }
 
   public void reset() {
     Parameters.day = 0;
+    fadeoutSince = -1.0;
     diversity = 0;
     for (int i = 0; i < Parameters.demeCount; i++) {
       HostPopulation hp = demes.get(i);
       hp.reset();
     }
     VirusTree.clear();
+    PhenotypePool.clear();
+    if (nextReactionEngine != null) {
+      nextReactionEngine.reset();
+    }
   }
 }
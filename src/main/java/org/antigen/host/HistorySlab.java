@@ -0,0 +1,69 @@
+/* Recycles immune history buffers between hosts */
+/* Buffers come in capacity classes of 1, 2, 4, 8 ... entries, so a host grows its history by */
+/* moving to the next class and returns the old buffer for another host to reuse */
+/* Hosts are only updated from the simulation thread, so this is not synchronized */
+
+package org.antigen.host;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import org.antigen.phenotype.Phenotype;
+
+class HistorySlab {
+
+  static final Phenotype[] EMPTY = new Phenotype[0];
+
+  private static final int CLASSES = 31;
+  private static final int MAX_FREE = 1 << 16; // free buffers kept per capacity class
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static final ArrayDeque<Phenotype[]>[] free = new ArrayDeque[CLASSES];
+
+  static {
+    for (int c = 0; c < CLASSES; c++) {
+      free[c] = new ArrayDeque<>();
+    }
+  }
+
+  // capacity class holding at least length entries
+  static int capacityClass(int length) {
+    return length <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(length - 1);
+  }
+
+  // a buffer with room for at least length entries, all null
+  static Phenotype[] acquire(int length) {
+    if (length == 0) {
+      return EMPTY;
+    }
+    int c = capacityClass(length);
+    Phenotype[] buffer = free[c].pollLast();
+    return buffer != null ? buffer : new Phenotype[1 << c];
+  }
+
+  // return a buffer whose first used entries may be set, the caller must not keep it
+  static void release(Phenotype[] buffer, int used) {
+    if (buffer.length == 0) {
+      return;
+    }
+    ArrayDeque<Phenotype[]> list = free[capacityClass(buffer.length)];
+    if (list.size() < MAX_FREE) {
+      Arrays.fill(buffer, 0, used, null);
+      list.addLast(buffer);
+    }
+  }
+
+  // number of free buffers held, over all capacity classes
+  static int freeCount() {
+    int count = 0;
+    for (ArrayDeque<Phenotype[]> list : free) {
+      count += list.size();
+    }
+    return count;
+  }
+
+  static void clear() {
+    for (ArrayDeque<Phenotype[]> list : free) {
+      list.clear();
+    }
+  }
+}
@@ -3,24 +3,42 @@
 package org.antigen.host;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.regex.*;
 import org.antigen.core.Parameters;
 import org.antigen.core.Random;
 import org.antigen.phenotype.Phenotype;
 import org.antigen.phenotype.PhenotypeFactory;
+import org.antigen.phenotype.PhenotypePool;
 import org.antigen.virus.Virus;
 
 public class Host {
 
   // fields
   private Virus infection;
-  private Phenotype[] immuneHistory = new Phenotype[0];
+  // history is immuneHistory[0 .. historyLength - 1] in order of infection, the buffer is
+  // recycled through HistorySlab so adding and waning do not allocate
+  private Phenotype[] immuneHistory = HistorySlab.EMPTY;
+  private int historyLength = 0;
 
   // naive host
   public Host() {
     initializeHistory();
   }
 
+  // newborn host, with initial immunity already drawn by the caller
+  Host(boolean immune) {
+    if (immune) {
+      addToHistory(Parameters.urImmunity);
+    }
+  }
+
+  // host restored from a history already merged and capped, in a buffer sized for HistorySlab
+  Host(Phenotype[] history, int length) {
+    immuneHistory = history;
+    historyLength = length;
+  }
+
   // initial infected host
   public Host(Virus v) {
     infection = v;
@@ -34,7 +52,7 @@ public class Host {
       String[] traitList = rc.split(sVirus);
       double x = Double.parseDouble(traitList[0]);
       double y = Double.parseDouble(traitList[1]);
-      Phenotype p = PhenotypeFactory.makeArbitaryPhenotype(x, y);
+      Phenotype p = PhenotypePool.intern(PhenotypeFactory.makeArbitaryPhenotype(x, y));
       infection = new Virus(Parameters.urVirus, d, p);
     }
     if (!sHist.equals("n")) {
@@ -45,7 +63,7 @@ public class Host {
         String[] traitList = rc.split(s);
         double x = Double.parseDouble(traitList[0]);
         double y = Double.parseDouble(traitList[1]);
-        Phenotype p = PhenotypeFactory.makeArbitaryPhenotype(x, y);
+        Phenotype p = PhenotypePool.intern(PhenotypeFactory.makeArbitaryPhenotype(x, y));
         addToHistory(p);
       }
     }
@@ -61,16 +79,76 @@ public class Host {
   }
 
   public void addToHistory(Phenotype p) {
-    Phenotype[] newHistory = new Phenotype[immuneHistory.length + 1];
-    System.arraycopy(immuneHistory, 0, newHistory, 0, immuneHistory.length);
-    newHistory[immuneHistory.length] = p;
-    immuneHistory = newHistory;
+    // an entry within historyMergeRadius of p is replaced by p
+    // risk is set by the closest entry, so with a radius of 0 this only drops exact duplicates
+    // and leaves risk unchanged
+    if (Parameters.historyMergeRadius >= 0) {
+      int closest = closestEntry(p);
+      if (closest >= 0
+          && (immuneHistory[closest] == p
+              || immuneHistory[closest].distance(p) <= Parameters.historyMergeRadius)) {
+        removeFromHistory(closest);
+      }
+    }
+    if (historyLength == immuneHistory.length) {
+      Phenotype[] newHistory = HistorySlab.acquire(historyLength + 1);
+      System.arraycopy(immuneHistory, 0, newHistory, 0, historyLength);
+      HistorySlab.release(immuneHistory, historyLength);
+      immuneHistory = newHistory;
+    }
+    immuneHistory[historyLength] = p;
+    historyLength++;
+    if (Parameters.maxHistoryLength > 0 && historyLength > Parameters.maxHistoryLength) {
+      mergeClosestPair();
+    }
+  }
+
+  // index of the history entry closest to p, -1 if the history is empty
+  private int closestEntry(Phenotype p) {
+    int closest = -1;
+    double closestDistance = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < historyLength; i++) {
+      if (immuneHistory[i] == p) {
+        return i;
+      }
+      double d = immuneHistory[i].distance(p);
+      if (d < closestDistance) {
+        closest = i;
+        closestDistance = d;
+      }
+    }
+    return closest;
+  }
+
+  // drop the older entry of the two closest entries, keeping history in order of infection
+  private void mergeClosestPair() {
+    int older = 0;
+    double closestDistance = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < historyLength; i++) {
+      for (int j = i + 1; j < historyLength; j++) {
+        double d = immuneHistory[i].distance(immuneHistory[j]);
+        if (d < closestDistance) {
+          older = i;
+          closestDistance = d;
+        }
+      }
+    }
+    removeFromHistory(older);
+  }
+
+  // shift later entries down in place, keeping history in order of infection
+  private void removeFromHistory(int index) {
+    historyLength--;
+    System.arraycopy(immuneHistory, index + 1, immuneHistory, index, historyLength - index);
+    immuneHistory[historyLength] = null;
   }
 
   // infection methods
   public void reset() {
     infection = null;
-    immuneHistory = new Phenotype[0];
+    HistorySlab.release(immuneHistory, historyLength);
+    immuneHistory = HistorySlab.EMPTY;
+    historyLength = 0;
   }
 
   public boolean isInfected() {
@@ -92,7 +170,7 @@ public class Host {
   }
 
   public int getHistoryLength() {
-    return immuneHistory.length;
+    return historyLength;
   }
 
   // make a new virus with the mutated phenotype
@@ -103,28 +181,26 @@ public class Host {
 
   // remove random phenotype from host's immune profile, do nothing if empty
   public void waneImmunity() {
-    int length = immuneHistory.length;
-    if (length > 0) {
-      int remove = Random.nextInt(0, length - 1);
-      Phenotype[] newHistory = new Phenotype[length - 1];
-      int currentIndex = 0;
-      for (int i = 0; i < length; i++) {
-        if (i != remove) {
-          newHistory[currentIndex] = immuneHistory[i];
-          currentIndex++;
-        }
-      }
-      immuneHistory = newHistory;
+    if (historyLength > 0) {
+      int remove = Random.nextInt(0, historyLength - 1);
+      removeFromHistory(remove);
     }
   }
 
   // history methods
+  // copy of the immune history, for output
   public Phenotype[] getHistory() {
+    return Arrays.copyOf(immuneHistory, historyLength);
+  }
+
+  // buffer holding the immune history, only the first getHistoryLength() entries belong to it
+  public Phenotype[] getHistoryBuffer() {
     return immuneHistory;
   }
 
   public void printHistoryCoordinates(PrintStream stream) {
-    for (Phenotype phenotype : immuneHistory) {
+    for (int i = 0; i < historyLength; i++) {
+      Phenotype phenotype = immuneHistory[i];
       // get traitA and traitB from phenotype
       String[] p = phenotype.toString().split(",");
       String traitA = p[1];
@@ -143,9 +219,9 @@ public class Host {
   }
 
   public void printHistory(PrintStream stream) {
-    if (immuneHistory.length > 0) {
+    if (historyLength > 0) {
       stream.print(immuneHistory[0]);
-      for (int i = 1; i < immuneHistory.length; i++) {
+      for (int i = 1; i < historyLength; i++) {
         stream.print(";" + immuneHistory[i]);
       }
     } else {
@@ -0,0 +1,232 @@
+/* Binary dump of every host, a compact alternative to the out.hosts text written by */
+/* HostPopulation.printHostPopulation */
+/* The file holds a header with each distinct phenotype written once as its toString() text, */
+/* then one section per deme of host records that refer to phenotypes by their index in the header */
+/* Sections are encoded in parallel, each through the output codec on its own, and as encoded */
+/* streams concatenate the whole file decodes as one, so with gzip it reads as one gzip stream */
+/* Run main to convert a dump to the out.hosts text format */
+
+package org.antigen.host;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.antigen.core.OutputCodec;
+import org.antigen.core.OutputCodecs;
+import org.antigen.phenotype.Phenotype;
+
+public class HostDump {
+
+  static final int MAGIC = 0x41484450; // "AHDP"
+  static final int VERSION = 1;
+  static final int NO_INFECTION = -1;
+
+  // write every host of demes to file, encoded with codec
+  public static void write(List<HostPopulation> demes, File file, OutputCodec codec)
+      throws IOException {
+
+    // index each distinct phenotype, first collecting each deme's in parallel
+    List<List<Phenotype>> demePhenotypes = new ArrayList<>();
+    for (int d = 0; d < demes.size(); d++) {
+      demePhenotypes.add(null);
+    }
+    IntStream.range(0, demes.size())
+        .parallel()
+        .forEach(d -> demePhenotypes.set(d, distinctPhenotypes(demes.get(d))));
+    List<Phenotype> phenotypes = new ArrayList<>();
+    Map<Phenotype, Integer> handles = new IdentityHashMap<>();
+    for (List<Phenotype> list : demePhenotypes) {
+      for (Phenotype p : list) {
+        if (!handles.containsKey(p)) {
+          handles.put(p, phenotypes.size());
+          phenotypes.add(p);
+        }
+      }
+    }
+
+    // encode each deme to its own part file in parallel, handles is only read from here on
+    File dir = file.getAbsoluteFile().getParentFile();
+    File[] parts = new File[demes.size()];
+    try {
+      IntStream.range(0, demes.size())
+          .parallel()
+          .forEach(
+              d -> {
+                try {
+                  parts[d] = File.createTempFile("antigen-hosts", ".part", dir);
+                  try (DataOutputStream out = open(parts[d], codec)) {
+                    writeDeme(out, d, demes.get(d), handles);
+                  }
+                } catch (IOException ex) {
+                  throw new UncheckedIOException(ex);
+                }
+              });
+    } catch (UncheckedIOException ex) {
+      deleteParts(parts);
+      throw ex.getCause();
+    }
+
+    // header, then the deme sections copied in order
+    try (DataOutputStream out = open(file, codec)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(demes.size());
+      out.writeInt(phenotypes.size());
+      for (Phenotype p : phenotypes) {
+        byte[] text = p.toString().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(text.length);
+        out.write(text);
+      }
+    }
+    try (FileChannel target = new FileOutputStream(file, true).getChannel()) {
+      for (File part : parts) {
+        try (FileChannel source = new FileInputStream(part).getChannel()) {
+          long position = 0;
+          long size = source.size();
+          while (position < size) {
+            position += source.transferTo(position, size - position, target);
+          }
+        }
+      }
+    } finally {
+      deleteParts(parts);
+    }
+  }
+
+  // write a dump as out.hosts text, detecting compression from the first bytes
+  public static void toText(InputStream stream, PrintStream text) throws IOException {
+    DataInputStream in = new DataInputStream(OutputCodecs.decode(stream));
+
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a host dump");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported host dump version " + version);
+    }
+    int demeCount = in.readInt();
+    String[] phenotypes = new String[in.readInt()];
+    for (int i = 0; i < phenotypes.length; i++) {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      phenotypes[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    for (int d = 0; d < demeCount; d++) {
+      int deme = in.readInt();
+      int hosts = in.readInt();
+      for (int i = 0; i < hosts; i++) {
+        int infection = in.readInt();
+        int length = in.readInt();
+        text.print(deme + ":");
+        text.print(infection == NO_INFECTION ? "n" : phenotypes[infection]);
+        text.print(":");
+        if (length == 0) {
+          text.print("n");
+        }
+        for (int j = 0; j < length; j++) {
+          if (j > 0) {
+            text.print(";");
+          }
+          text.print(phenotypes[in.readInt()]);
+        }
+        text.println();
+      }
+    }
+  }
+
+  // converts a dump to text, usage: HostDump out.hosts.bin [out.hosts]
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      System.out.println("Usage: HostDump <dump> [<text file>]");
+      System.exit(0);
+    }
+    try (InputStream in = new FileInputStream(args[0])) {
+      PrintStream text =
+          args.length > 1
+              ? new PrintStream(new BufferedOutputStream(new FileOutputStream(args[1]), 1 << 16))
+              : System.out;
+      toText(in, text);
+      text.flush();
+      if (text != System.out) {
+        text.close();
+      }
+    } catch (EOFException ex) {
+      System.out.println("Host dump is truncated");
+      System.exit(0);
+    } catch (IOException ex) {
+      System.out.println("Could not convert host dump: " + ex.getMessage());
+      System.exit(0);
+    }
+  }
+
+  // phenotypes of infections and histories in a deme, each once in order of first use
+  private static List<Phenotype> distinctPhenotypes(HostPopulation hp) {
+    Map<Phenotype, Boolean> seen = new IdentityHashMap<>();
+    List<Phenotype> phenotypes = new ArrayList<>();
+    for (int i = 0; i < hp.getN(); i++) {
+      Host h = hp.getHost(i);
+      if (h.isInfected()) {
+        Phenotype p = h.getInfection().getPhenotype();
+        if (seen.put(p, Boolean.TRUE) == null) {
+          phenotypes.add(p);
+        }
+      }
+      Phenotype[] history = h.getHistoryBuffer();
+      for (int j = 0; j < h.getHistoryLength(); j++) {
+        if (seen.put(history[j], Boolean.TRUE) == null) {
+          phenotypes.add(history[j]);
+        }
+      }
+    }
+    return phenotypes;
+  }
+
+  // one record per host, infection handle, history length and history handles
+  private static void writeDeme(
+      DataOutputStream out, int deme, HostPopulation hp, Map<Phenotype, Integer> handles)
+      throws IOException {
+    int n = hp.getN();
+    out.writeInt(deme);
+    out.writeInt(n);
+    for (int i = 0; i < n; i++) {
+      Host h = hp.getHost(i);
+      out.writeInt(h.isInfected() ? handles.get(h.getInfection().getPhenotype()) : NO_INFECTION);
+      int length = h.getHistoryLength();
+      Phenotype[] history = h.getHistoryBuffer();
+      out.writeInt(length);
+      for (int j = 0; j < length; j++) {
+        out.writeInt(handles.get(history[j]));
+      }
+    }
+  }
+
+  private static DataOutputStream open(File file, OutputCodec codec) throws IOException {
+    OutputStream out = codec.wrap(new FileOutputStream(file));
+    return new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+  }
+
+  private static void deleteParts(File[] parts) {
+    for (File part : parts) {
+      if (part != null) {
+        part.delete();
+      }
+    }
+  }
+}
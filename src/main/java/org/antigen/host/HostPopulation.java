@@ -5,8 +5,11 @@ package org.antigen.host;
 import java.io.*;
 import java.util.*;
 import java.util.regex.*;
+import org.antigen.core.DemeContactMatrix;
+import org.antigen.core.OutputCodecs;
 import org.antigen.core.Parameters;
 import org.antigen.core.Random;
+import org.antigen.phenotype.HistoryBatch;
 import org.antigen.phenotype.Phenotype;
 import org.antigen.virus.Virus;
 import org.antigen.virus.VirusTree;
@@ -17,7 +20,11 @@ public class HostPopulation {
   private int deme;
   private String name;
   private int cases;
-  private List<Host> susceptibles = new ArrayList<>();
+  private List<Host> susceptibles =
+      Parameters.offHeapHosts
+          ? new MappedHostList(Parameters.maxHistoryLength)
+          : new ArrayList<>(); // modified hosts are written back with set when held off-heap
+  private int naiveCount = 0; // naive susceptibles held only as a count, hybridDemography only
   private List<Host> infecteds = new ArrayList<>();
   private List<Host> recovereds =
       new ArrayList<>(); // this is the transcendental class, immune to all forms of virus
@@ -26,10 +33,44 @@ public class HostPopulation {
   private double netau;
   private double serialInterval;
   private double antigenicDiversity;
+  private double serialIntervalSum; // sum of serial intervals over current infections
 
   private int newContacts;
   private int newRecoveries;
   private double contactRate;
+  private double[] importPressure = new double[0];
+
+  // contact buffers, reused across steps
+  private long[] contactKeys = new long[0];
+  private Virus[] contactViruses = new Virus[0];
+  private int[] contactSusceptibles = new int[0];
+  private double[] contactRisks = new double[0];
+
+  // buffers for evaluating one phenotype against many host histories
+  private HistoryBatch riskBatch = new HistoryBatch();
+  private double[] sampleRisks = new double[0];
+  private int[] sampleSusceptibles = new int[0]; // susceptibles drawn for a risk sample
+  private Phenotype[][] historyScratch = new Phenotype[0][]; // off-heap histories read for a batch
+
+  // hosts from the previous attempt, reused by reset instead of allocating new ones
+  private List<Host> spareHosts = new ArrayList<>();
+
+  // event channels for the next reaction engine, each channel fires single events
+  public static final int EVENT_CONTACT = 0; // within-deme contact
+  public static final int EVENT_RECOVERY = 1;
+  public static final int EVENT_MUTATION = 2;
+  public static final int EVENT_WANING = 3;
+  public static final int EVENT_IMMUNITY_LOSS = 4; // transcendental R->S
+  public static final int EVENT_SAMPLING = 5;
+  public static final int EVENT_IMPORT = 6; // between-deme contact from source demes
+  public static final int EVENT_TURNOVER_S = 7; // swap or death of a susceptible
+  public static final int EVENT_TURNOVER_I = 8; // swap or death of an infected
+  public static final int EVENT_TURNOVER_R = 9; // swap or death of a recovered
+  public static final int EVENT_BIRTH = 10; // births when not swapping demography
+  public static final int EVENTS = 11;
+
+  // stands in for any naive susceptible that is only counted, must not be modified
+  private static final Host NAIVE = new Host(false);
 
   // construct population, using Virus v as initial infection
   public HostPopulation(int d) {
@@ -48,15 +89,15 @@ public class HostPopulation {
       initialS -= Parameters.initialI;
     }
     for (int i = 0; i < initialS; i++) {
-      Host h = new Host();
-      susceptibles.add(h);
+      addNewborn();
     }
 
     // fill population with recovereds
     for (int i = 0; i < initialR; i++) {
-      Host h = new Host();
+      Host h = newHost(Random.nextBoolean(Parameters.initialPrR));
       recovereds.add(h);
     }
+    spareHosts.clear();
 
     if (deme == Parameters.initialDeme - 1) {
 
@@ -64,7 +105,7 @@ public class HostPopulation {
       for (int i = 0; i < Parameters.initialI; i++) {
         Virus v = new Virus(Parameters.urVirus, deme);
         Host h = new Host(v);
-        infecteds.add(h);
+        addInfected(h);
       }
     }
   }
@@ -78,7 +119,8 @@ public class HostPopulation {
       name = Parameters.demeNames[deme];
 
       try {
-        BufferedReader in = new BufferedReader(new FileReader("out.hosts"));
+        // read through whichever codec the checkpoint was written with
+        BufferedReader in = OutputCodecs.read("out.hosts");
         String line;
         while ((line = in.readLine()) != null) {
           Pattern regex = Pattern.compile(":");
@@ -89,9 +131,9 @@ public class HostPopulation {
           if (thisDeme == deme) {
             Host h = new Host(deme, sVirus, sHist);
             if (sVirus.equals("n")) {
-              susceptibles.add(h);
+              addSusceptible(h);
             } else {
-              infecteds.add(h);
+              addInfected(h);
             }
           }
         }
@@ -105,11 +147,16 @@ public class HostPopulation {
 
   // accessors
   public int getN() {
-    return susceptibles.size() + infecteds.size() + recovereds.size();
+    return susceptibles.size() + naiveCount + infecteds.size() + recovereds.size();
   }
 
   public int getS() {
-    return susceptibles.size();
+    return susceptibles.size() + naiveCount;
+  }
+
+  // naive susceptibles held only as a count, always 0 unless hybridDemography
+  int getNaiveCount() {
+    return naiveCount;
   }
 
   public int getI() {
@@ -162,9 +209,11 @@ public class HostPopulation {
     return h;
   }
 
+  // a naive susceptible that is only counted is returned as a shared host that must not be
+  // modified
   public Host getRandomHostS() {
     int index = Random.nextInt(0, getS() - 1);
-    return susceptibles.get(index);
+    return getSusceptible(index);
   }
 
   public Host getRandomHostI() {
@@ -218,18 +267,116 @@ public class HostPopulation {
     return serialInterval;
   }
 
+  public double getSerialIntervalSum() {
+    return serialIntervalSum;
+  }
+
   public double getAntigenicDiversity() {
     return antigenicDiversity;
   }
 
+  // susceptibles past the end of the list are naive hosts that are only counted
+  Host getSusceptible(int i) {
+    return i < susceptibles.size() ? susceptibles.get(i) : NAIVE;
+  }
+
+  // host i of the susceptibles, infecteds and recovereds in turn, as printHostPopulation orders
+  // them
+  Host getHost(int i) {
+    int s = getS();
+    if (i < s) {
+      return getSusceptible(i);
+    }
+    i -= s;
+    if (i < infecteds.size()) {
+      return infecteds.get(i);
+    }
+    return recovereds.get(i - infecteds.size());
+  }
+
   public void removeSusceptible(int i) {
-    int lastIndex = getS() - 1;
+    if (i >= susceptibles.size()) {
+      naiveCount--;
+      return;
+    }
+    if (Parameters.offHeapHosts) {
+      ((MappedHostList) susceptibles).swapRemove(i);
+      return;
+    }
+    int lastIndex = susceptibles.size() - 1;
     Host lastHost = susceptibles.get(lastIndex);
     susceptibles.set(i, lastHost);
     susceptibles.remove(lastIndex);
   }
 
+  // add the history of susceptible i to batch, off-heap records are read into reused buffers
+  private void addSusceptibleHistory(HistoryBatch batch, int i) {
+    if (Parameters.offHeapHosts && i < susceptibles.size()) {
+      int k = batch.size();
+      if (k == historyScratch.length) {
+        historyScratch = Arrays.copyOf(historyScratch, Math.max(16, 2 * k));
+      }
+      if (historyScratch[k] == null) {
+        historyScratch[k] = new Phenotype[Parameters.maxHistoryLength];
+      }
+      int length = ((MappedHostList) susceptibles).readHistory(i, historyScratch[k]);
+      batch.add(historyScratch[k], length);
+    } else {
+      Host h = getSusceptible(i);
+      batch.add(h.getHistoryBuffer(), h.getHistoryLength());
+    }
+  }
+
+  // remove susceptible i and return it, creating the host if it is only counted
+  private Host takeSusceptible(int i) {
+    Host h = i < susceptibles.size() ? susceptibles.get(i) : new Host(false);
+    removeSusceptible(i);
+    return h;
+  }
+
+  // under hybridDemography naive hosts are only counted, as they carry no state until infected
+  private void addSusceptible(Host h) {
+    if (Parameters.hybridDemography && h.getHistoryLength() == 0) {
+      naiveCount++;
+    } else {
+      susceptibles.add(h);
+    }
+  }
+
+  // add a newborn susceptible, drawing its initial immunity as new Host() does
+  private void addNewborn() {
+    if (Parameters.hybridDemography) {
+      if (Random.nextBoolean(Parameters.initialPrR)) {
+        susceptibles.add(newHost(true));
+      } else {
+        naiveCount++;
+      }
+    } else {
+      susceptibles.add(newHost(Random.nextBoolean(Parameters.initialPrR)));
+    }
+  }
+
+  // host with at most the initial immunity, recycled from spareHosts when any are left
+  private Host newHost(boolean immune) {
+    if (spareHosts.isEmpty()) {
+      return new Host(immune);
+    }
+    Host h = spareHosts.remove(spareHosts.size() - 1);
+    h.reset();
+    if (immune) {
+      h.addToHistory(Parameters.urImmunity);
+    }
+    return h;
+  }
+
+  // add host to infecteds, keeping the running serial interval sum up to date
+  public void addInfected(Host h) {
+    infecteds.add(h);
+    serialIntervalSum += h.getInfection().serialInterval();
+  }
+
   public void removeInfected(int i) {
+    serialIntervalSum -= infecteds.get(i).getInfection().serialInterval();
     int lastIndex = getI() - 1;
     Host lastHost = infecteds.get(lastIndex);
     infecteds.set(i, lastHost);
@@ -266,14 +413,148 @@ public class HostPopulation {
     sample();
   }
 
+  // per day rate of an event channel given the current state, matching the rates drawn each step
+  // by stepForward
+  public double getEventRate(int event, List<HostPopulation> demes, DemeContactMatrix matrix) {
+    double turnoverRate = Parameters.swapDemography ? Parameters.birthRate : Parameters.deathRate;
+    switch (event) {
+      case EVENT_CONTACT:
+        if (getN() == 0) {
+          return 0.0;
+        }
+        return getI() * getPrS() * Parameters.beta * Parameters.getSeasonality(deme);
+      case EVENT_RECOVERY:
+        return getI() * Parameters.nu;
+      case EVENT_MUTATION:
+        return getI() * Parameters.muPhenotype;
+      case EVENT_WANING:
+        return Parameters.waning ? getN() * Parameters.waningRate : 0.0;
+      case EVENT_IMMUNITY_LOSS:
+        return Parameters.transcendental ? getR() * Parameters.immunityLoss : 0.0;
+      case EVENT_SAMPLING:
+        if (getI() == 0 || Parameters.day < Parameters.burnin) {
+          return 0.0;
+        }
+        return Parameters.tipSamplingProportional
+            ? getI() * Parameters.tipSamplingRate
+            : Parameters.tipSamplingRate;
+      case EVENT_IMPORT:
+        if (getS() == 0) {
+          return 0.0;
+        }
+        return updateImportPressure(demes, matrix)
+            * getPrS()
+            * Parameters.beta
+            * Parameters.getSeasonality(deme);
+      case EVENT_TURNOVER_S:
+        // swapping a naive host changes nothing, so only listed susceptibles are swapped
+        return (Parameters.swapDemography ? susceptibles.size() : getS()) * turnoverRate;
+      case EVENT_TURNOVER_I:
+        return getI() * turnoverRate;
+      case EVENT_TURNOVER_R:
+        return getR() * turnoverRate;
+      case EVENT_BIRTH:
+        return Parameters.swapDemography ? 0.0 : getN() * Parameters.birthRate;
+      default:
+        return 0.0;
+    }
+  }
+
+  // fire a single event of a channel
+  public void fireEvent(int event, List<HostPopulation> demes, DemeContactMatrix matrix) {
+    switch (event) {
+      case EVENT_CONTACT:
+        contact();
+        break;
+      case EVENT_RECOVERY:
+        recover();
+        break;
+      case EVENT_MUTATION:
+        mutateI();
+        break;
+      case EVENT_WANING:
+        waneRandomHost();
+        break;
+      case EVENT_IMMUNITY_LOSS:
+        returnR();
+        break;
+      case EVENT_SAMPLING:
+        if (getI() > 0) {
+          sampleI();
+        }
+        break;
+      case EVENT_IMPORT:
+        importContact(demes, matrix);
+        break;
+      case EVENT_TURNOVER_S:
+        if (Parameters.swapDemography) {
+          swapS();
+        } else {
+          deathS();
+        }
+        break;
+      case EVENT_TURNOVER_I:
+        if (Parameters.swapDemography) {
+          swapI();
+        } else {
+          deathI();
+        }
+        break;
+      case EVENT_TURNOVER_R:
+        if (Parameters.swapDemography) {
+          swapR();
+        } else {
+          deathR();
+        }
+        break;
+      case EVENT_BIRTH:
+        birth();
+        break;
+      default:
+        break;
+    }
+  }
+
+  // a single within-deme contact between a random infected and a random susceptible
+  private void contact() {
+    if (getS() == 0 || getI() == 0) {
+      return;
+    }
+    ensureContactCapacity(1);
+    Virus v = infecteds.get(getRandomI()).getInfection();
+    if (v.getFitness() == 0.0) {
+      assignFitness(v);
+    }
+    contactViruses[0] = v;
+    contactSusceptibles[0] = getRandomS();
+    resolveContacts(1);
+  }
+
+  // a single contact between an infected of a source deme and a susceptible of this deme
+  private void importContact(List<HostPopulation> demes, DemeContactMatrix matrix) {
+    if (getS() == 0) {
+      return;
+    }
+    double totalPressure = updateImportPressure(demes, matrix);
+    if (totalPressure == 0.0) {
+      return;
+    }
+    HostPopulation hp = pickImportSource(demes, matrix, totalPressure);
+    if (hp.getI() > 0) {
+      ensureContactCapacity(1);
+      contactViruses[0] = hp.getRandomHostI().getInfection();
+      contactSusceptibles[0] = getRandomS();
+      resolveContacts(1);
+    }
+  }
+
   // draw a Poisson distributed number of births and add these hosts to the end of the population
   // list
   public void grow() {
     double totalBirthRate = getN() * Parameters.birthRate * Parameters.deltaT;
     int births = Random.nextPoisson(totalBirthRate);
     for (int i = 0; i < births; i++) {
-      Host h = new Host();
-      susceptibles.add(h);
+      birth();
     }
   }
 
@@ -283,69 +564,107 @@ public class HostPopulation {
     double totalDeathRate = getS() * Parameters.deathRate * Parameters.deltaT;
     int deaths = Random.nextPoisson(totalDeathRate);
     for (int i = 0; i < deaths; i++) {
-      if (getS() > 0) {
-        int index = getRandomS();
-        removeSusceptible(index);
-      }
+      deathS();
     }
     // deaths in infectious class
     totalDeathRate = getI() * Parameters.deathRate * Parameters.deltaT;
     deaths = Random.nextPoisson(totalDeathRate);
     for (int i = 0; i < deaths; i++) {
-      if (getI() > 0) {
-        int index = getRandomI();
-        removeInfected(index);
-      }
+      deathI();
     }
     // deaths in recovered class
     totalDeathRate = getR() * Parameters.deathRate * Parameters.deltaT;
     deaths = Random.nextPoisson(totalDeathRate);
     for (int i = 0; i < deaths; i++) {
-      if (getR() > 0) {
-        int index = getRandomR();
-        removeRecovered(index);
-      }
+      deathR();
     }
   }
 
   // draw a Poisson distributed number of births and reset these individuals
   public void swap() {
     // draw random individuals from susceptible class
-    double totalBirthRate = getS() * Parameters.birthRate * Parameters.deltaT;
+    // swapping a naive host changes nothing, so under hybridDemography only the susceptibles held
+    // as hosts are drawn from, which thins the swaps to those that have an effect
+    double totalBirthRate = susceptibles.size() * Parameters.birthRate * Parameters.deltaT;
     int births = Random.nextPoisson(totalBirthRate);
     for (int i = 0; i < births; i++) {
-      if (getS() > 0) {
-        int index = getRandomS();
-        Host h = susceptibles.get(index);
-        h.reset();
-      }
+      swapS();
     }
     // draw random individuals from infected class
     totalBirthRate = getI() * Parameters.birthRate * Parameters.deltaT;
     births = Random.nextPoisson(totalBirthRate);
     for (int i = 0; i < births; i++) {
-      if (getI() > 0) {
-        int index = getRandomI();
-        Host h = infecteds.get(index);
-        h.reset();
-        removeInfected(index);
-        susceptibles.add(h);
-      }
+      swapI();
     }
     // draw random individuals from recovered class
     totalBirthRate = getR() * Parameters.birthRate * Parameters.deltaT;
     births = Random.nextPoisson(totalBirthRate);
     for (int i = 0; i < births; i++) {
-      if (getR() > 0) {
-        int index = getRandomR();
-        Host h = recovereds.get(index);
-        h.reset();
-        removeRecovered(index);
-        susceptibles.add(h);
+      swapR();
+    }
+  }
+
+  // single demographic events, shared by both engines
+  private void birth() {
+    addNewborn();
+  }
+
+  private void deathS() {
+    if (getS() > 0) {
+      int index = getRandomS();
+      removeSusceptible(index);
+    }
+  }
+
+  private void deathI() {
+    if (getI() > 0) {
+      int index = getRandomI();
+      removeInfected(index);
+    }
+  }
+
+  private void deathR() {
+    if (getR() > 0) {
+      int index = getRandomR();
+      removeRecovered(index);
+    }
+  }
+
+  private void swapS() {
+    if (susceptibles.size() > 0) {
+      int index = Random.nextInt(0, susceptibles.size() - 1);
+      if (Parameters.offHeapHosts) {
+        ((MappedHostList) susceptibles).clearHistory(index);
+      } else {
+        susceptibles.get(index).reset();
+      }
+      if (Parameters.hybridDemography) {
+        removeSusceptible(index);
+        naiveCount++;
       }
     }
   }
 
+  private void swapI() {
+    if (getI() > 0) {
+      int index = getRandomI();
+      Host h = infecteds.get(index);
+      removeInfected(index);
+      h.reset();
+      addSusceptible(h);
+    }
+  }
+
+  private void swapR() {
+    if (getR() > 0) {
+      int index = getRandomR();
+      Host h = recovereds.get(index);
+      h.reset();
+      removeRecovered(index);
+      addSusceptible(h);
+    }
+  }
+
   // draw a Poisson distributed number of contacts
   public void recordContacts() {
     // each infected makes I->S contacts on a per-day rate of beta * S/N
@@ -356,78 +675,172 @@ public class HostPopulation {
   }
 
   // move from S->I following number of new contacts
+  // index pairs for all contacts are drawn up front from the hosts present at the start of
+  // distribution and sorted by infected host, so that each infecting phenotype is loaded once
   public void distributeContacts() {
 
-    for (int i = 0; i < newContacts; i++) {
-      if (getS() > 0 && getI() > 0) {
-
-        // get indices and objects
-        int index = getRandomI();
-        int sndex = getRandomS();
-        Host iH = infecteds.get(index);
-        Host sH = susceptibles.get(sndex);
-        Virus v = iH.getInfection();
-
-        // attempt infection
-        Phenotype p = v.getPhenotype();
-        Phenotype[] history = sH.getHistory();
-        double chanceOfSuccess = p.riskOfInfection(history);
-        if (Random.nextBoolean(chanceOfSuccess)) {
-          sH.infect(v, deme);
-          removeSusceptible(sndex);
-          infecteds.add(sH);
-          cases++;
-        }
-        // If there is not fitness, assign now.
-        if (v.getFitness() == 0.0) {
-          double averageRisk = getAverageRisk(p);
-          double seasonality = Parameters.getSeasonality(deme);
-          double probSusceptible = getPrS();
-          double seasonalFitness = averageRisk * seasonality * probSusceptible;
-
-          v.setAverageInfectionRisk(averageRisk);
-          v.setDemeSeasonality(seasonality);
-          v.setProbSusceptible(probSusceptible);
-          v.setFitness(seasonalFitness);
-        }
+    int contacts = newContacts;
+    if (contacts == 0 || getS() == 0 || getI() == 0) {
+      return;
+    }
+    ensureContactCapacity(contacts);
+
+    // draw (infected, susceptible) index pairs, packed so that sorting groups by infected
+    for (int i = 0; i < contacts; i++) {
+      long index = getRandomI();
+      long sndex = getRandomS();
+      contactKeys[i] = (index << 32) | sndex;
+    }
+    Arrays.sort(contactKeys, 0, contacts);
+    for (int i = 0; i < contacts; i++) {
+      int index = (int) (contactKeys[i] >>> 32);
+      contactViruses[i] = infecteds.get(index).getInfection();
+      contactSusceptibles[i] = (int) contactKeys[i];
+    }
+
+    // If there is not fitness, assign now, once per infecting virus
+    Virus last = null;
+    for (int i = 0; i < contacts; i++) {
+      Virus v = contactViruses[i];
+      if (v != last && v.getFitness() == 0.0) {
+        assignFitness(v);
+      }
+      last = v;
+    }
+
+    resolveContacts(contacts);
+  }
+
+  // attempt infection for the first n entries of the contact buffers
+  // risks are evaluated for all contacts before any S->I transition is applied, a susceptible
+  // contacted more than once is infected by the first successful contact
+  private void resolveContacts(int n) {
+
+    // evaluate risks in one batch per run of contacts sharing an infecting virus
+    int runStart = 0;
+    while (runStart < n) {
+      Virus v = contactViruses[runStart];
+      riskBatch.clear();
+      int runEnd = runStart;
+      while (runEnd < n && contactViruses[runEnd] == v) {
+        runEnd++;
+      }
+      if (Parameters.offHeapHosts) {
+        // contacts within a run are interchangeable, so visit their records in file order
+        Arrays.sort(contactSusceptibles, runStart, runEnd);
+      }
+      for (int i = runStart; i < runEnd; i++) {
+        addSusceptibleHistory(riskBatch, contactSusceptibles[i]);
+      }
+      v.getPhenotype().riskOfInfection(riskBatch, contactRisks, runStart);
+      runStart = runEnd;
+    }
+    riskBatch.clear();
+
+    // draw successes, packed by susceptible index so duplicates are adjacent
+    int successes = 0;
+    for (int i = 0; i < n; i++) {
+      if (Random.nextBoolean(contactRisks[i])) {
+        contactKeys[successes] = ((long) contactSusceptibles[i] << 32) | i;
+        successes++;
+      }
+    }
+    Arrays.sort(contactKeys, 0, successes);
+
+    // apply S->I in decreasing susceptible index so swap removal leaves lower indices intact
+    for (int j = successes - 1; j >= 0; j--) {
+      int sndex = (int) (contactKeys[j] >>> 32);
+      if (j > 0 && (int) (contactKeys[j - 1] >>> 32) == sndex) {
+        continue;
       }
+      Virus v = contactViruses[(int) contactKeys[j]];
+      Host sH = takeSusceptible(sndex);
+      sH.infect(v, deme);
+      addInfected(sH);
+      cases++;
+    }
+
+    Arrays.fill(contactViruses, 0, n, null);
+  }
+
+  private void ensureContactCapacity(int n) {
+    if (contactKeys.length < n) {
+      int capacity = Math.max(n, 2 * contactKeys.length);
+      contactKeys = new long[capacity];
+      contactViruses = new Virus[capacity];
+      contactSusceptibles = new int[capacity];
+      contactRisks = new double[capacity];
     }
   }
 
   // draw a Poisson distributed number of contacts and move from S->I based upon this
-  // this deme is susceptibles and other deme is infecteds
-  public void betweenDemeContact(HostPopulation hp) {
+  // this deme is susceptibles and the source demes listed in its row of the contact matrix are
+  // infecteds. contacts from all sources are drawn at once and then assigned to a source deme
+  // proportional to its weighted number of infecteds
+  public void betweenDemeContact(List<HostPopulation> demes, DemeContactMatrix contactMatrix) {
 
-    // each infected makes I->S contacts on a per-day rate of beta * S/N
+    if (getS() == 0) {
+      return;
+    }
+    double totalPressure = updateImportPressure(demes, contactMatrix);
+    if (totalPressure == 0.0) {
+      return;
+    }
+
+    // each infected makes I->S contacts on a per-day rate of weight * beta * S/N
     double totalContactRate =
-        hp.getI()
+        totalPressure
             * getPrS()
             * Parameters.beta
-            * Parameters.betweenDemePro
             * Parameters.getSeasonality(deme)
             * Parameters.deltaT;
     int contacts = Random.nextPoisson(totalContactRate);
+    ensureContactCapacity(contacts);
+    int n = 0;
     for (int i = 0; i < contacts; i++) {
-      if (getS() > 0 && hp.getI() > 0) {
-
-        // get indices and objects
-        Host iH = hp.getRandomHostI();
-        int sndex = getRandomS();
-        Host sH = susceptibles.get(sndex);
-        Virus v = iH.getInfection();
-
-        // attempt infection
-        Phenotype p = v.getPhenotype();
-        Phenotype[] history = sH.getHistory();
-        double chanceOfSuccess = p.riskOfInfection(history);
-        if (Random.nextBoolean(chanceOfSuccess)) {
-          sH.infect(v, deme);
-          removeSusceptible(sndex);
-          infecteds.add(sH);
-          cases++;
-        }
+      HostPopulation hp = pickImportSource(demes, contactMatrix, totalPressure);
+      if (hp.getI() > 0) {
+        contactViruses[n] = hp.getRandomHostI().getInfection();
+        contactSusceptibles[n] = getRandomS();
+        n++;
+      }
+    }
+    resolveContacts(n);
+  }
+
+  // cumulative weighted infecteds across the source demes of this deme, returns the total
+  private double updateImportPressure(List<HostPopulation> demes, DemeContactMatrix contactMatrix) {
+    int start = contactMatrix.getRowStart(deme);
+    int end = contactMatrix.getRowEnd(deme);
+    if (importPressure.length < end - start) {
+      importPressure = new double[end - start];
+    }
+    double totalPressure = 0.0;
+    for (int e = start; e < end; e++) {
+      HostPopulation hp = demes.get(contactMatrix.getSource(e));
+      totalPressure += contactMatrix.getWeight(e) * hp.getI();
+      importPressure[e - start] = totalPressure;
+    }
+    return totalPressure;
+  }
+
+  // pick source deme proportional to import pressure, binary search for first cumulative
+  // pressure above x
+  private HostPopulation pickImportSource(
+      List<HostPopulation> demes, DemeContactMatrix contactMatrix, double totalPressure) {
+    int start = contactMatrix.getRowStart(deme);
+    double x = Random.nextDouble(0.0, totalPressure);
+    int lo = 0;
+    int hi = contactMatrix.getRowEnd(deme) - start - 1;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (importPressure[mid] <= x) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
       }
     }
+    return demes.get(contactMatrix.getSource(start + lo));
   }
 
   // draw a Poisson distributed number of recoveries
@@ -441,16 +854,20 @@ public class HostPopulation {
   public void distributeRecoveries() {
 
     for (int i = 0; i < newRecoveries; i++) {
-      if (getI() > 0) {
-        int index = getRandomI();
-        Host h = infecteds.get(index);
-        h.clearInfection();
-        removeInfected(index);
-        if (Parameters.transcendental) {
-          recovereds.add(h);
-        } else {
-          susceptibles.add(h);
-        }
+      recover();
+    }
+  }
+
+  private void recover() {
+    if (getI() > 0) {
+      int index = getRandomI();
+      Host h = infecteds.get(index);
+      removeInfected(index);
+      h.clearInfection();
+      if (Parameters.transcendental) {
+        recovereds.add(h);
+      } else {
+        addSusceptible(h);
       }
     }
   }
@@ -461,12 +878,16 @@ public class HostPopulation {
     double totalReturnRate = getR() * Parameters.immunityLoss * Parameters.deltaT;
     int returns = Random.nextPoisson(totalReturnRate);
     for (int i = 0; i < returns; i++) {
-      if (getR() > 0) {
-        int index = getRandomR();
-        Host h = recovereds.get(index);
-        removeRecovered(index);
-        susceptibles.add(h);
-      }
+      returnR();
+    }
+  }
+
+  private void returnR() {
+    if (getR() > 0) {
+      int index = getRandomR();
+      Host h = recovereds.get(index);
+      removeRecovered(index);
+      addSusceptible(h);
     }
   }
 
@@ -476,8 +897,29 @@ public class HostPopulation {
     double totalWaningRate = getN() * Parameters.waningRate * Parameters.deltaT;
     int wanings = Random.nextPoisson(totalWaningRate);
     for (int i = 0; i < wanings; i++) {
-      Host h = getRandomHost();
-      h.waneImmunity();
+      waneRandomHost();
+    }
+  }
+
+  // wane a host drawn as getRandomHost does, changing an off-heap record in place
+  private void waneRandomHost() {
+    double n = Random.nextDouble(0.0, 1.0);
+    if (n < getPrS()) {
+      int index = Random.nextInt(0, getS() - 1);
+      if (index < susceptibles.size() && Parameters.offHeapHosts) {
+        // draws as Host.waneImmunity does
+        MappedHostList mapped = (MappedHostList) susceptibles;
+        int length = mapped.getHistoryLength(index);
+        if (length > 0) {
+          mapped.removeHistoryEntry(index, Random.nextInt(0, length - 1));
+        }
+      } else if (index < susceptibles.size()) {
+        susceptibles.get(index).waneImmunity();
+      }
+    } else if (n > getPrS() && n < getPrS() + getPrI()) {
+      getRandomHostI().waneImmunity();
+    } else if (n > getPrS() + getPrI()) {
+      getRandomHostR().waneImmunity();
     }
   }
 
@@ -488,37 +930,85 @@ public class HostPopulation {
     double totalMutationRate = getI() * Parameters.muPhenotype * Parameters.deltaT;
     int mutations = Random.nextPoisson(totalMutationRate);
     for (int i = 0; i < mutations; i++) {
-      if (getI() > 0) {
-        int index = getRandomI();
-        Host h = infecteds.get(index);
-        Virus v = h.mutate();
-        Phenotype p = v.getPhenotype();
-        double averageRisk = getAverageRisk(p);
-        double seasonality = Parameters.getSeasonality(deme);
-        double probSusceptible = getPrS();
-        double seasonalFitness = averageRisk * seasonality * probSusceptible;
-
-        v.setAverageInfectionRisk(averageRisk);
-        v.setDemeSeasonality(seasonality);
-        v.setProbSusceptible(probSusceptible);
-        v.setFitness(seasonalFitness);
-      }
+      mutateI();
     }
   }
 
+  private void mutateI() {
+    if (getI() > 0) {
+      int index = getRandomI();
+      Host h = infecteds.get(index);
+      serialIntervalSum -= h.getInfection().serialInterval();
+      Virus v = h.mutate();
+      serialIntervalSum += v.serialInterval();
+      assignFitness(v);
+    }
+  }
+
+  // assign seasonal fitness of virus in this deme at the current time
+  private void assignFitness(Virus v) {
+    double averageRisk = getAverageRisk(v.getPhenotype());
+    double seasonality = Parameters.getSeasonality(deme);
+    double probSusceptible = getPrS();
+    double seasonalFitness = averageRisk * seasonality * probSusceptible;
+
+    v.setAverageInfectionRisk(averageRisk);
+    v.setDemeSeasonality(seasonality);
+    v.setProbSusceptible(probSusceptible);
+    v.setFitness(seasonalFitness);
+  }
+
   // Get average infection risk of a phenotype amongst a given sample size
   private double getAverageRisk(Phenotype p) {
     double sampleSize = (double) Parameters.fitnessSampleSize;
+    if (sampleRisks.length < Parameters.fitnessSampleSize) {
+      sampleRisks = new double[Parameters.fitnessSampleSize];
+    }
+    riskBatch.clear();
+    if (Parameters.offHeapHosts) {
+      addRandomHistoriesSorted(Parameters.fitnessSampleSize);
+    } else {
+      for (int i = 0; i < Parameters.fitnessSampleSize; i++) {
+        Host h = getRandomHost();
+        riskBatch.add(h.getHistoryBuffer(), h.getHistoryLength());
+      }
+    }
+    p.riskOfInfection(riskBatch, sampleRisks, 0);
+    riskBatch.clear();
     double averageRisk = 0;
     for (int i = 0; i < Parameters.fitnessSampleSize; i++) {
-      Host h = getRandomHost();
-      Phenotype[] history = h.getHistory();
-      averageRisk += p.riskOfInfection(history);
+      averageRisk += sampleRisks[i];
     }
     averageRisk /= sampleSize;
     return averageRisk;
   }
 
+  // add the histories of n hosts drawn as getRandomHost draws them, reading the sampled off-heap
+  // records in file order so that the sample touches each mapped page once
+  private void addRandomHistoriesSorted(int n) {
+    if (sampleSusceptibles.length < n) {
+      sampleSusceptibles = new int[n];
+    }
+    int drawn = 0;
+    for (int i = 0; i < n; i++) {
+      double u = Random.nextDouble(0.0, 1.0);
+      if (u < getPrS()) {
+        sampleSusceptibles[drawn] = Random.nextInt(0, getS() - 1);
+        drawn++;
+      } else if (u > getPrS() && u < getPrS() + getPrI()) {
+        Host h = getRandomHostI();
+        riskBatch.add(h.getHistoryBuffer(), h.getHistoryLength());
+      } else if (u > getPrS() + getPrI()) {
+        Host h = getRandomHostR();
+        riskBatch.add(h.getHistoryBuffer(), h.getHistoryLength());
+      }
+    }
+    Arrays.sort(sampleSusceptibles, 0, drawn);
+    for (int i = 0; i < drawn; i++) {
+      addSusceptibleHistory(riskBatch, sampleSusceptibles[i]);
+    }
+  }
+
   // draw a Poisson distributed number of samples and add them to the VirusSample
   // only sample after burnin is completed
   // assign fitness values.
@@ -532,24 +1022,19 @@ public class HostPopulation {
 
       int samples = Random.nextPoisson(totalSamplingRate);
       for (int i = 0; i < samples; i++) {
-        int index = getRandomI();
-        Host h = infecteds.get(index);
-        Virus v = h.getInfection();
-        Phenotype p = v.getPhenotype();
-        double averageRisk = getAverageRisk(p);
-        double seasonality = Parameters.getSeasonality(deme);
-        double probSusceptible = getPrS();
-        double seasonalFitness = averageRisk * seasonality * probSusceptible;
-
-        v.setAverageInfectionRisk(averageRisk);
-        v.setDemeSeasonality(seasonality);
-        v.setProbSusceptible(probSusceptible);
-        v.setFitness(seasonalFitness);
-        VirusTree.add(v);
+        sampleI();
       }
     }
   }
 
+  private void sampleI() {
+    int index = getRandomI();
+    Host h = infecteds.get(index);
+    Virus v = h.getInfection();
+    assignFitness(v);
+    VirusTree.add(v);
+  }
+
   // through current infected population assigning ancestry as trunk
   public void makeTrunk() {
     for (int i = 0; i < getI(); i++) {
@@ -567,6 +1052,8 @@ public class HostPopulation {
     }
   }
 
+  // genealogical statistics are estimated from random pairs of infections, serial interval is
+  // the exact mean over current infections, maintained as infections start and end
   public void updateDiversity() {
 
     diversity = 0.0;
@@ -594,7 +1081,6 @@ public class HostPopulation {
           antigenicDiversity += vA.antigenicDistance(vB);
           coalOpp += coalWindow;
           coalCount += vA.coalescence(vB, coalWindow);
-          serialInterval += vA.serialInterval();
         }
       }
 
@@ -602,7 +1088,7 @@ public class HostPopulation {
       tmrca /= 2.0;
       antigenicDiversity /= sampleCount;
       netau = coalOpp / coalCount;
-      serialInterval /= sampleCount;
+      serialInterval = serialIntervalSum / getI();
     }
   }
 
@@ -628,12 +1114,27 @@ public class HostPopulation {
         name, name, name, name, name, name, name, name, name, name);
   }
 
+  // release the file behind off-heap susceptibles, the population cannot be used afterwards
+  public void close() {
+    if (Parameters.offHeapHosts) {
+      ((MappedHostList) susceptibles).close();
+    }
+  }
+
   // reset population to factory condition
   public void reset() {
 
-    // clearing lists
+    // clearing lists, keeping their hosts to be reset in place rather than reallocated
+    spareHosts.clear();
+    if (!Parameters.offHeapHosts) {
+      spareHosts.addAll(susceptibles);
+    }
+    spareHosts.addAll(infecteds);
+    spareHosts.addAll(recovereds);
     susceptibles.clear();
+    naiveCount = 0;
     infecteds.clear();
+    serialIntervalSum = 0.0;
     recovereds.clear();
 
     int initialR = 0;
@@ -644,8 +1145,7 @@ public class HostPopulation {
     // fill population with susceptibles
     int initialS = Parameters.initialNs[deme] - Parameters.initialI - initialR;
     for (int i = 0; i < initialS; i++) {
-      Host h = new Host();
-      susceptibles.add(h);
+      addNewborn();
     }
 
     // fill population with recovereds
@@ -660,7 +1160,7 @@ public class HostPopulation {
       for (int i = 0; i < 3 * Parameters.initialI; i++) {
         Virus v = new Virus(Parameters.urVirus, deme);
         Host h = new Host(v);
-        infecteds.add(h);
+        addInfected(h);
       }
     }
   }
@@ -678,9 +1178,9 @@ public class HostPopulation {
 
   public void printHostPopulation(PrintStream stream) {
 
-    // step through susceptibles and print
+    // step through susceptibles and print, including naive hosts that are only counted
     for (int i = 0; i < getS(); i++) {
-      Host h = susceptibles.get(i);
+      Host h = getSusceptible(i);
       stream.print(deme + ":");
       h.printInfection(stream);
       stream.print(":");
@@ -0,0 +1,286 @@
+/* Susceptible hosts held off the Java heap in a memory-mapped file */
+/* Each host is a fixed-width record of its history length followed by maxHistoryLength handles */
+/* into a phenotype table shared by all lists, and records are mapped in blocks as the list grows */
+/* Handles are reference counted over all records, so the table only holds phenotypes that some */
+/* record still refers to, and a handle is reused once its phenotype is no longer referenced */
+/* get returns a new Host built from its record, so changes to that host are only kept by set */
+/* The simulation's hot paths instead read and change records in place with readHistory, */
+/* swapRemove, clearHistory and removeHistoryEntry, which allocate nothing */
+/* Records carry no infection, hosts are moved to an on-heap list when infected */
+
+package org.antigen.host;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import org.antigen.phenotype.Phenotype;
+
+public class MappedHostList extends AbstractList<Host> implements RandomAccess, Closeable {
+
+  static final int BLOCK_RECORDS = 1 << 16; // records per mapped block
+
+  // phenotypes referenced by any record, shared between lists
+  private static final List<Phenotype> phenotypes = new ArrayList<>(); // null for a free handle
+  private static final Map<Phenotype, Integer> handles = new IdentityHashMap<>();
+  private static int[] references = new int[16]; // number of record entries using each handle
+  private static int[] freeHandles = new int[16];
+  private static int freeCount = 0;
+
+  private final int slots;
+  private final int recordBytes;
+  private final int[] released; // handles of an overwritten record, released after the write
+  private FileChannel channel;
+  private final List<MappedByteBuffer> blocks = new ArrayList<>();
+  private int size = 0;
+
+  // list whose records hold up to slots history entries, backed by a file in java.io.tmpdir
+  MappedHostList(int slots) {
+    this.slots = slots;
+    recordBytes = 4 * (slots + 1);
+    released = new int[slots];
+    try {
+      File file = File.createTempFile("antigen-hosts", ".map");
+      channel = new RandomAccessFile(file, "rw").getChannel();
+      // the mapping keeps the data reachable, so the file can go as soon as it is open
+      if (!file.delete()) {
+        file.deleteOnExit();
+      }
+    } catch (IOException ex) {
+      System.out.println("Could not create off-heap host file");
+      System.exit(0);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Host get(int index) {
+    checkIndex(index);
+    MappedByteBuffer block = blocks.get(index / BLOCK_RECORDS);
+    int offset = (index % BLOCK_RECORDS) * recordBytes;
+    int length = block.getInt(offset);
+    // sized as HistorySlab would size it so it can be released there, but allocated here so that
+    // hosts can be read from several threads when dumping
+    Phenotype[] history =
+        length == 0 ? HistorySlab.EMPTY : new Phenotype[1 << HistorySlab.capacityClass(length)];
+    for (int i = 0; i < length; i++) {
+      history[i] = phenotypes.get(block.getInt(offset + 4 * (i + 1)));
+    }
+    return new Host(history, length);
+  }
+
+  @Override
+  public Host set(int index, Host h) {
+    checkIndex(index);
+    MappedByteBuffer block = blocks.get(index / BLOCK_RECORDS);
+    int offset = (index % BLOCK_RECORDS) * recordBytes;
+    int length = block.getInt(offset);
+    for (int i = 0; i < length; i++) {
+      released[i] = block.getInt(offset + 4 * (i + 1));
+    }
+    // new handles are taken before the old ones go, so an unchanged entry keeps its handle
+    write(index, h);
+    for (int i = 0; i < length; i++) {
+      release(released[i]);
+    }
+    // the previous host is only a copy and is never used by HostPopulation
+    return null;
+  }
+
+  // hosts can only be appended
+  @Override
+  public void add(int index, Host h) {
+    if (index != size) {
+      throw new UnsupportedOperationException("MappedHostList only appends");
+    }
+    if (size == blocks.size() * BLOCK_RECORDS) {
+      mapBlock();
+    }
+    size++;
+    write(index, h);
+  }
+
+  // hosts can only be removed from the end
+  @Override
+  public Host remove(int index) {
+    if (index != size - 1) {
+      throw new UnsupportedOperationException("MappedHostList only removes its last host");
+    }
+    releaseRecord(index);
+    size--;
+    return null;
+  }
+
+  // mapped blocks are kept for reuse as the list refills
+  @Override
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      releaseRecord(i);
+    }
+    size = 0;
+  }
+
+  // copy the history of host index into history, which must hold slots entries, returning its
+  // length
+  int readHistory(int index, Phenotype[] history) {
+    checkIndex(index);
+    MappedByteBuffer block = blocks.get(index / BLOCK_RECORDS);
+    int offset = (index % BLOCK_RECORDS) * recordBytes;
+    int length = block.getInt(offset);
+    for (int i = 0; i < length; i++) {
+      history[i] = phenotypes.get(block.getInt(offset + 4 * (i + 1)));
+    }
+    return length;
+  }
+
+  int getHistoryLength(int index) {
+    checkIndex(index);
+    return blocks.get(index / BLOCK_RECORDS).getInt((index % BLOCK_RECORDS) * recordBytes);
+  }
+
+  // remove host index by moving the last record into its place
+  void swapRemove(int index) {
+    checkIndex(index);
+    releaseRecord(index);
+    int last = size - 1;
+    if (index != last) {
+      MappedByteBuffer from = blocks.get(last / BLOCK_RECORDS);
+      MappedByteBuffer to = blocks.get(index / BLOCK_RECORDS);
+      int fromOffset = (last % BLOCK_RECORDS) * recordBytes;
+      int toOffset = (index % BLOCK_RECORDS) * recordBytes;
+      int length = from.getInt(fromOffset);
+      for (int i = 0; i <= length; i++) {
+        to.putInt(toOffset + 4 * i, from.getInt(fromOffset + 4 * i));
+      }
+    }
+    size--;
+  }
+
+  // empty the history of host index, as Host.reset does
+  void clearHistory(int index) {
+    checkIndex(index);
+    releaseRecord(index);
+    blocks.get(index / BLOCK_RECORDS).putInt((index % BLOCK_RECORDS) * recordBytes, 0);
+  }
+
+  // remove history entry of host index, shifting later entries down as Host does
+  void removeHistoryEntry(int index, int entry) {
+    checkIndex(index);
+    MappedByteBuffer block = blocks.get(index / BLOCK_RECORDS);
+    int offset = (index % BLOCK_RECORDS) * recordBytes;
+    int length = block.getInt(offset);
+    if (entry < 0 || entry >= length) {
+      throw new IndexOutOfBoundsException("Entry " + entry + " out of bounds for " + length);
+    }
+    release(block.getInt(offset + 4 * (entry + 1)));
+    for (int i = entry + 1; i < length; i++) {
+      block.putInt(offset + 4 * i, block.getInt(offset + 4 * (i + 1)));
+    }
+    block.putInt(offset, length - 1);
+  }
+
+  // release the records' handles and the backing file, the list cannot be used afterwards
+  @Override
+  public void close() {
+    clear();
+    blocks.clear();
+    try {
+      channel.close();
+    } catch (IOException ex) {
+      System.out.println("Could not close off-heap host file");
+    }
+  }
+
+  // number of phenotypes referenced by any record, over all lists
+  public static int getPhenotypeCount() {
+    return handles.size();
+  }
+
+  private void write(int index, Host h) {
+    int length = h.getHistoryLength();
+    if (length > slots) {
+      throw new IllegalStateException("history of " + length + " entries exceeds " + slots);
+    }
+    Phenotype[] history = h.getHistoryBuffer();
+    MappedByteBuffer block = blocks.get(index / BLOCK_RECORDS);
+    int offset = (index % BLOCK_RECORDS) * recordBytes;
+    block.putInt(offset, length);
+    for (int i = 0; i < length; i++) {
+      block.putInt(offset + 4 * (i + 1), acquire(history[i]));
+    }
+  }
+
+  private void releaseRecord(int index) {
+    MappedByteBuffer block = blocks.get(index / BLOCK_RECORDS);
+    int offset = (index % BLOCK_RECORDS) * recordBytes;
+    int length = block.getInt(offset);
+    for (int i = 0; i < length; i++) {
+      release(block.getInt(offset + 4 * (i + 1)));
+    }
+  }
+
+  // handle of p with one more reference, taking a free handle if p has none
+  private static int acquire(Phenotype p) {
+    Integer handle = handles.get(p);
+    if (handle == null) {
+      if (freeCount > 0) {
+        freeCount--;
+        handle = freeHandles[freeCount];
+        phenotypes.set(handle, p);
+      } else {
+        handle = phenotypes.size();
+        phenotypes.add(p);
+        if (handle == references.length) {
+          references = Arrays.copyOf(references, 2 * handle);
+        }
+      }
+      handles.put(p, handle);
+    }
+    references[handle]++;
+    return handle;
+  }
+
+  // drop one reference, freeing the handle and its phenotype when none are left
+  private static void release(int handle) {
+    references[handle]--;
+    if (references[handle] == 0) {
+      handles.remove(phenotypes.get(handle));
+      phenotypes.set(handle, null);
+      if (freeCount == freeHandles.length) {
+        freeHandles = Arrays.copyOf(freeHandles, 2 * freeCount);
+      }
+      freeHandles[freeCount] = handle;
+      freeCount++;
+    }
+  }
+
+  private void mapBlock() {
+    long blockBytes = (long) BLOCK_RECORDS * recordBytes;
+    try {
+      blocks.add(
+          channel.map(FileChannel.MapMode.READ_WRITE, blocks.size() * blockBytes, blockBytes));
+    } catch (IOException ex) {
+      System.out.println("Could not map off-heap host file");
+      System.exit(0);
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    }
+  }
+}
@@ -0,0 +1,16 @@
+/* Interface for phenotypes that are points in a Euclidean antigenic space */
+/* Used by the tree output to project and flip phenotypes without knowing their dimension */
+
+package org.antigen.phenotype;
+
+public interface Coordinates {
+
+  // number of dimensions of the antigenic space
+  int getDimensions();
+
+  // position along dimension i
+  double getTrait(int i);
+
+  // move along dimension i
+  void setTrait(int i, double t);
+}
@@ -11,7 +11,7 @@ import java.util.*;
 import org.antigen.core.Parameters;
 import org.antigen.core.Random;
 
-public class GeometricPhenotype implements Phenotype {
+public class GeometricPhenotype implements Phenotype, Coordinates {
 
   // fields
   private double traitA;
@@ -41,6 +41,22 @@ public class GeometricPhenotype implements Phenotype {
     traitB = tB;
   }
 
+  public int getDimensions() {
+    return 2;
+  }
+
+  public double getTrait(int i) {
+    return i == 0 ? getTraitA() : getTraitB();
+  }
+
+  public void setTrait(int i, double t) {
+    if (i == 0) {
+      setTraitA(t);
+    } else {
+      setTraitB(t);
+    }
+  }
+
   // raw antigenic distance between two phenotypes
   public double distance(Phenotype p) {
     GeometricPhenotype p2d = (GeometricPhenotype) p;
@@ -54,11 +70,16 @@ public class GeometricPhenotype implements Phenotype {
   // cross immunity between a virus phenotype and a host's immune history
   // here encoded more directly as risk of infection, which ranges from 0 to 1
   public double riskOfInfection(Phenotype[] history) {
+    return riskOfInfection(history, history.length);
+  }
+
+  // risk against the first length entries of history
+  public double riskOfInfection(Phenotype[] history, int length) {
 
     // find closest phenotype in history
     double closestDistance = 100.0;
-    if (history.length > 0) {
-      for (int i = 0; i < history.length; i++) {
+    if (length > 0) {
+      for (int i = 0; i < length; i++) {
         double thisDistance = distance(history[i]);
         if (thisDistance < closestDistance) {
           closestDistance = thisDistance;
@@ -77,6 +98,15 @@ public class GeometricPhenotype implements Phenotype {
     return risk;
   }
 
+  // risk against each history in the batch, using packed coordinates when available
+  public void riskOfInfection(HistoryBatch histories, double[] risks, int offset) {
+    if (histories.isPacked(2)) {
+      histories.packedRisks(new double[] {getTraitA(), getTraitB()}, risks, offset);
+    } else {
+      Phenotype.super.riskOfInfection(histories, risks, offset);
+    }
+  }
+
   // returns a mutated copy, original Phenotype is unharmed
   // mutate with gamma
   public Phenotype mutate() {
@@ -0,0 +1,127 @@
+/* Antigenic phenotype present in individual Viruses and within Hosts as immune history */
+/* Point in a Euclidean antigenic space with any number of dimensions */
+/* Coordinates are held in a flat array so distance loops stay tight as dimensions grow */
+/* Multiple Viruses can reference a single Phenotype object */
+
+package org.antigen.phenotype;
+
+import org.antigen.core.Parameters;
+import org.antigen.core.Random;
+
+public class GeometricPhenotypeND implements Phenotype, Coordinates {
+
+  // fields
+  private final double[] traits;
+
+  // constructor
+  public GeometricPhenotypeND(int dimensions) {
+    traits = new double[dimensions];
+  }
+
+  public GeometricPhenotypeND(double[] tarray) {
+    traits = tarray;
+  }
+
+  public int getDimensions() {
+    return traits.length;
+  }
+
+  public double getTrait(int i) {
+    return traits[i];
+  }
+
+  public void setTrait(int i, double t) {
+    traits[i] = t;
+  }
+
+  // squared antigenic distance, avoids the square root when only comparing distances
+  private double squaredDistance(GeometricPhenotypeND p) {
+    double[] a = traits;
+    double[] b = p.traits;
+    double dist = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      double d = a[i] - b[i];
+      dist += d * d;
+    }
+    return dist;
+  }
+
+  // raw antigenic distance between two phenotypes
+  public double distance(Phenotype p) {
+    return Math.sqrt(squaredDistance((GeometricPhenotypeND) p));
+  }
+
+  // cross immunity between a virus phenotype and a host's immune history
+  // here encoded more directly as risk of infection, which ranges from 0 to 1
+  public double riskOfInfection(Phenotype[] history) {
+    return riskOfInfection(history, history.length);
+  }
+
+  // risk against the first length entries of history
+  public double riskOfInfection(Phenotype[] history, int length) {
+
+    // find closest phenotype in history, comparing squared distances
+    double closestDistance = 100.0 * 100.0;
+    for (int i = 0; i < length; i++) {
+      double thisDistance = squaredDistance((GeometricPhenotypeND) history[i]);
+      if (thisDistance < closestDistance) {
+        closestDistance = thisDistance;
+      }
+      if (thisDistance < 0.01 * 0.01) {
+        break;
+      }
+    }
+
+    double risk = Math.sqrt(closestDistance) * Parameters.smithConversion;
+    double minRisk = 1.0 - Parameters.homologousImmunity;
+    risk = Math.max(minRisk, risk);
+    risk = Math.min(1.0, risk);
+
+    return risk;
+  }
+
+  // risk against each history in the batch, using packed coordinates when available
+  public void riskOfInfection(HistoryBatch histories, double[] risks, int offset) {
+    if (histories.isPacked(traits.length)) {
+      histories.packedRisks(traits, risks, offset);
+    } else {
+      Phenotype.super.riskOfInfection(histories, risks, offset);
+    }
+  }
+
+  // returns a mutated copy, original Phenotype is unharmed
+  public Phenotype mutate() {
+
+    // random spherical point code comes from
+    // http://mathworld.wolfram.com/HyperspherePointPicking.html
+
+    // spherical direction
+    int dimen = traits.length;
+    double[] vec = new double[dimen];
+    double norm = 0.0;
+    for (int i = 0; i < dimen; i++) {
+      vec[i] = Random.nextNormal();
+      norm += vec[i] * vec[i];
+    }
+    norm = Math.sqrt(norm);
+
+    // size of mutation
+    double r = Random.nextExponential(Parameters.meanStep);
+
+    // scaling by mutation size and applying to original phenotype
+    double scale = r / norm;
+    for (int i = 0; i < dimen; i++) {
+      vec[i] = traits[i] + vec[i] * scale;
+    }
+
+    return new GeometricPhenotypeND(vec);
+  }
+
+  public String toString() {
+    StringBuilder fullString = new StringBuilder(String.format("%.4f", traits[0]));
+    for (int i = 1; i < traits.length; i++) {
+      fullString.append(String.format(",%.4f", traits[i]));
+    }
+    return fullString.toString();
+  }
+}
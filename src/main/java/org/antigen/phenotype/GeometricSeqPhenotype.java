@@ -54,6 +54,9 @@ public class GeometricSeqPhenotype extends GeometricPhenotype {
 
   /** */
 
+  /** The last substitution on this lineage, null unless Parameters.recordMutations is set */
+  private Mutation lastMutation;
+
   /** Run expensive tests iff DEBUG == true. */
   public static final boolean DEBUG = false;
 
@@ -185,6 +188,15 @@ public class GeometricSeqPhenotype extends GeometricPhenotype {
     return String.valueOf(this.nucleotideSequence);
   }
 
+  // nucleotide at site i, counting from 0
+  public char getNucleotide(int i) {
+    return this.nucleotideSequence[i];
+  }
+
+  public int getSequenceLength() {
+    return this.nucleotideSequence.length;
+  }
+
   public int getEpitopeMutationCount() {
     return this.epitopeMutationCount;
   }
@@ -193,6 +205,21 @@ public class GeometricSeqPhenotype extends GeometricPhenotype {
     return this.nonepitopeMutationCount;
   }
 
+  // nucleotide sequence without copying, must not be modified
+  char[] getNucleotides() {
+    return this.nucleotideSequence;
+  }
+
+  // epitope, non-epitope, low epitope and high epitope mutation counts
+  int[] getMutationCounts() {
+    return new int[] {
+      this.epitopeMutationCount,
+      this.nonepitopeMutationCount,
+      this.lowEpitopeMutationCount,
+      this.highEpitopeMutationCount
+    };
+  }
+
   /**
    * Return the (Euclidean) distance between this GeometricSeqPhenotype and p in Euclidean space
    *
@@ -217,7 +244,8 @@ public class GeometricSeqPhenotype extends GeometricPhenotype {
   public Phenotype mutate() {
     // Implementation:
     // Mutates a nucleotide in the sequence at a random index
-    // If mutation creates a stop codon, then mutate at another index
+    // Sites are accepted with the probability that mutating them does not create a stop codon,
+    // and the new nucleotide is drawn from the non-stop mutations for the site's codon
 
     // this.nucleotideSequence is represented using a char[] instead of
     // - String since Strings are immutable. New Strings have to be created to
@@ -227,27 +255,26 @@ public class GeometricSeqPhenotype extends GeometricPhenotype {
     // - StringBuffer because it's just a Wrapper around a char[], and has
     // functionality that we don't need such as resizing.
 
-    String wildTypeAminoAcid = "", mutantAminoAcid = "";
-    int nucleotideMutationIndex = -1;
-    char wildTypeNucleotide = ' ', mutantNucleotide = ' ';
+    Biology.MutationSampler sampler = Biology.MutationSampler.SAMPLER;
+    int nucleotideMutationIndex;
+    int context;
 
-    // Make a single nucleotide mutation to the sequence
-    // If the mutation results in a stop codon, then throw that mutation away and
-    // try another one
-    while (mutantAminoAcid.equals("") || mutantAminoAcid.equals("STOP")) {
-      // choose random index to mutate in this.nucleotideSequence
+    // choose random index to mutate in this.nucleotideSequence
+    do {
       nucleotideMutationIndex = Random.nextInt(0, this.nucleotideSequence.length - 1);
+      context = sampler.getContext(this.nucleotideSequence, nucleotideMutationIndex);
+    } while (!sampler.acceptSite(context));
 
-      wildTypeNucleotide = this.nucleotideSequence[nucleotideMutationIndex];
-
-      // get mutant nucleotide (transition/transversion ratio)
-      mutantNucleotide = Biology.K80DNAEvolutionModel.MUTATION.sampleNucleotide(wildTypeNucleotide);
-
-      String[] wildTypeMutantAminoAcids = mutateHelper(nucleotideMutationIndex, mutantNucleotide);
+    // get mutant nucleotide (transition/transversion ratio), never a stop codon
+    int mutantIndex = sampler.sampleNucleotide(context);
+    char mutantNucleotide =
+        Biology.AlphabetType.NUCLEOTIDES.getValidCharacters().charAt(mutantIndex);
 
-      wildTypeAminoAcid = wildTypeMutantAminoAcids[0];
-      mutantAminoAcid = wildTypeMutantAminoAcids[1];
-    }
+    int wildTypeCodon = sampler.getCodon(context);
+    int shift = 2 * (2 - nucleotideMutationIndex % 3);
+    int mutantCodon = (wildTypeCodon & ~(3 << shift)) | (mutantIndex << shift);
+    String wildTypeAminoAcid = Biology.CodonMap.CODONS.getAminoAcid(wildTypeCodon);
+    String mutantAminoAcid = Biology.CodonMap.CODONS.getAminoAcid(mutantCodon);
 
     // Make a copy of the nucleotide sequence, since Java uses references for arrays
     char[] copyNucleotideSequence =
@@ -266,26 +293,39 @@ public class GeometricSeqPhenotype extends GeometricPhenotype {
 
     // Synonymous mutations don't change counts or antigenic space, return early
     if (wildTypeAminoAcid.equals(mutantAminoAcid)) {
-      return new GeometricSeqPhenotype(
-          getTraitA(),
-          getTraitB(),
-          copyNucleotideSequence,
-          this.epitopeMutationCount,
-          this.nonepitopeMutationCount,
-          this.lowEpitopeMutationCount,
-          this.highEpitopeMutationCount);
+      GeometricSeqPhenotype synonymous =
+          new GeometricSeqPhenotype(
+              getTraitA(),
+              getTraitB(),
+              copyNucleotideSequence,
+              this.epitopeMutationCount,
+              this.nonepitopeMutationCount,
+              this.lowEpitopeMutationCount,
+              this.highEpitopeMutationCount);
+      return recordMutation(
+          synonymous,
+          nucleotideMutationIndex,
+          wildTypeCodon,
+          mutantCodon,
+          shift,
+          isEpitopeSite,
+          isEpitopeSiteLow,
+          isEpitopeSiteHigh,
+          0.0,
+          0.0);
     }
 
-    // Apply acceptance/rejection filter based on site type
+    // Apply acceptance/rejection filter based on site type, scaled by the DMS preference of the
+    // mutant relative to the wild type amino acid (1 without DMS data)
+    double acceptance =
+        (isEpitopeSite ? Parameters.epitopeAcceptance : Parameters.nonEpitopeAcceptance)
+            * Biology.DMSData.DMS_DATA.getAcceptance(
+                proteinMutationIndex,
+                Biology.CodonMap.CODONS.getAminoAcidIndex(wildTypeCodon),
+                Biology.CodonMap.CODONS.getAminoAcidIndex(mutantCodon));
     double rejectionProb = Random.nextDouble(); // Uniform draw from 0.0 to 1.0
-    if (isEpitopeSite) {
-      if (rejectionProb > Parameters.epitopeAcceptance) {
-        return this;
-      }
-    } else {
-      if (rejectionProb > Parameters.nonEpitopeAcceptance) {
-        return this;
-      }
+    if (rejectionProb > acceptance) {
+      return this;
     }
 
     // Update counts only for non-synonymous mutations
@@ -324,14 +364,63 @@ public class GeometricSeqPhenotype extends GeometricPhenotype {
     // vector giving the virus's current location (getTraitA() and getTraitB())
     // and then summing it with a precomputed or random vector (vector.mutA and vector.mutB)
     // that gives the antigenic effect of the mutation.
-    return new GeometricSeqPhenotype(
-        getTraitA() + vector.mutA,
-        getTraitB() + vector.mutB,
-        copyNucleotideSequence,
-        eMutationNew,
-        neMutationNew,
-        lowEpitopeMutationCountNew,
-        highEpitopeMutationCountNew);
+    GeometricSeqPhenotype mutant =
+        new GeometricSeqPhenotype(
+            getTraitA() + vector.mutA,
+            getTraitB() + vector.mutB,
+            copyNucleotideSequence,
+            eMutationNew,
+            neMutationNew,
+            lowEpitopeMutationCountNew,
+            highEpitopeMutationCountNew);
+    return recordMutation(
+        mutant,
+        nucleotideMutationIndex,
+        wildTypeCodon,
+        mutantCodon,
+        shift,
+        isEpitopeSite,
+        isEpitopeSiteLow,
+        isEpitopeSiteHigh,
+        vector.mutA,
+        vector.mutB);
+  }
+
+  // extend this lineage's substitutions with the one that gave mutant, if they are recorded
+  private GeometricSeqPhenotype recordMutation(
+      GeometricSeqPhenotype mutant,
+      int site,
+      int wildTypeCodon,
+      int mutantCodon,
+      int shift,
+      boolean isEpitopeSite,
+      boolean isEpitopeSiteLow,
+      boolean isEpitopeSiteHigh,
+      double vectorA,
+      double vectorB) {
+    if (Parameters.recordMutations) {
+      int epitopeClass =
+          isEpitopeSiteHigh
+              ? Mutation.EPITOPE_HIGH
+              : isEpitopeSiteLow
+                  ? Mutation.EPITOPE_LOW
+                  : isEpitopeSite ? Mutation.EPITOPE : Mutation.NON_EPITOPE;
+      long packed =
+          Mutation.pack(
+              site,
+              (wildTypeCodon >> shift) & 3,
+              (mutantCodon >> shift) & 3,
+              Biology.CodonMap.CODONS.getAminoAcidIndex(wildTypeCodon),
+              Biology.CodonMap.CODONS.getAminoAcidIndex(mutantCodon),
+              epitopeClass);
+      mutant.lastMutation = new Mutation(packed, vectorA, vectorB, lastMutation);
+    }
+    return mutant;
+  }
+
+  // the last substitution on this lineage, null if there is none or they are not recorded
+  public Mutation getLastMutation() {
+    return lastMutation;
   }
 
   // Mutates nucleotide sequence at given nucleotideMutationIndex with given char
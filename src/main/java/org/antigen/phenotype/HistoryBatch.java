@@ -0,0 +1,115 @@
+/* Immune histories of many hosts gathered for evaluation against a single phenotype */
+/* When every history entry has coordinates of the same dimension, they are packed into one */
+/* flat array so risk can be computed in tight loops without per-entry dispatch */
+/* Reused between evaluations, clear() keeps the allocated buffers */
+
+package org.antigen.phenotype;
+
+import java.util.*;
+import org.antigen.core.Parameters;
+
+public class HistoryBatch {
+
+  // fields
+  private Phenotype[][] histories = new Phenotype[16][];
+  private int[] lengths = new int[16]; // history i is histories[i][0 .. lengths[i] - 1]
+  private int size = 0;
+  private boolean packed = true; // false once an entry without matching coordinates is added
+  private int dimensions = -1; // dimension of packed entries, -1 until the first one
+  private int[] entryStart = new int[17]; // entries of history i are entryStart[i] .. [i + 1] - 1
+  private double[] coordinates = new double[64]; // entry e occupies e * dimensions onwards
+
+  public void clear() {
+    Arrays.fill(histories, 0, size, null);
+    size = 0;
+    packed = true;
+    dimensions = -1;
+  }
+
+  public void add(Phenotype[] history) {
+    add(history, history.length);
+  }
+
+  // add the first length entries of a history buffer
+  public void add(Phenotype[] history, int length) {
+    if (size == histories.length) {
+      histories = Arrays.copyOf(histories, 2 * size);
+      lengths = Arrays.copyOf(lengths, 2 * size);
+      entryStart = Arrays.copyOf(entryStart, 2 * size + 1);
+    }
+    histories[size] = history;
+    lengths[size] = length;
+    int entries = entryStart[size];
+    if (packed) {
+      for (int e = 0; e < length; e++) {
+        Phenotype p = history[e];
+        if (!(p instanceof Coordinates)) {
+          packed = false;
+          break;
+        }
+        Coordinates c = (Coordinates) p;
+        if (dimensions < 0) {
+          dimensions = c.getDimensions();
+        } else if (c.getDimensions() != dimensions) {
+          packed = false;
+          break;
+        }
+        int start = entries * dimensions;
+        if (start + dimensions > coordinates.length) {
+          coordinates = Arrays.copyOf(coordinates, 2 * (start + dimensions));
+        }
+        for (int k = 0; k < dimensions; k++) {
+          coordinates[start + k] = c.getTrait(k);
+        }
+        entries++;
+      }
+    }
+    size++;
+    entryStart[size] = entries;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // buffer holding history i, only the first getHistoryLength(i) entries belong to it
+  public Phenotype[] getHistory(int i) {
+    return histories[i];
+  }
+
+  public int getHistoryLength(int i) {
+    return lengths[i];
+  }
+
+  // whether the packed kernel can be used for a point of the given dimension
+  public boolean isPacked(int dim) {
+    return packed && (dimensions < 0 || dimensions == dim);
+  }
+
+  // risk of infection of each history against the point, written to risks[offset + i]
+  // matches the scalar riskOfInfection: closest distance with a break below 0.01, capped at 100
+  void packedRisks(double[] point, double[] risks, int offset) {
+    int dim = point.length;
+    double minRisk = 1.0 - Parameters.homologousImmunity;
+    for (int i = 0; i < size; i++) {
+      double closestDistance = 100.0 * 100.0;
+      int end = entryStart[i + 1] * dim;
+      for (int start = entryStart[i] * dim; start < end; start += dim) {
+        double thisDistance = 0.0;
+        for (int k = 0; k < dim; k++) {
+          double d = point[k] - coordinates[start + k];
+          thisDistance += d * d;
+        }
+        if (thisDistance < closestDistance) {
+          closestDistance = thisDistance;
+        }
+        if (thisDistance < 0.01 * 0.01) {
+          break;
+        }
+      }
+      double risk = Math.sqrt(closestDistance) * Parameters.smithConversion;
+      risk = Math.max(minRisk, risk);
+      risks[offset + i] = Math.min(1.0, risk);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/* A substitution recorded by GeometricSeqPhenotype.mutate when recordMutations is set */
+/* Site, nucleotides, amino acids and epitope class are packed into one long, and each mutation */
+/* points to the one before it on its lineage, so descendants share their ancestors' records */
+
+package org.antigen.phenotype;
+
+import org.antigen.virus.Biology;
+
+public final class Mutation {
+
+  // epitope classes, low and high are the epitope sites of epitopeSitesLow and epitopeSitesHigh
+  public static final int NON_EPITOPE = 0;
+  public static final int EPITOPE = 1;
+  public static final int EPITOPE_LOW = 2;
+  public static final int EPITOPE_HIGH = 3;
+  private static final String[] CLASS_NAMES = {
+    "nonepitope", "epitope", "epitopeLow", "epitopeHigh"
+  };
+
+  // bits 0-31 nucleotide site, then 2 bits for each nucleotide index, 5 bits for each amino acid
+  // index and 2 bits for the epitope class
+  private final long packed;
+  private final float vectorA; // antigenic change applied, 0 for synonymous mutations
+  private final float vectorB;
+  private final Mutation previous;
+  private final int count; // mutations on the lineage up to and including this one
+
+  Mutation(long packed, double vectorA, double vectorB, Mutation previous) {
+    this.packed = packed;
+    this.vectorA = (float) vectorA;
+    this.vectorB = (float) vectorB;
+    this.previous = previous;
+    this.count = previous == null ? 1 : previous.count + 1;
+  }
+
+  // nucleotides index NUCLEOTIDES and amino acids index AMINO_ACIDS
+  static long pack(
+      int site,
+      int wildTypeNucleotide,
+      int mutantNucleotide,
+      int wildTypeAminoAcid,
+      int mutantAminoAcid,
+      int epitopeClass) {
+    return (site & 0xffffffffL)
+        | ((long) wildTypeNucleotide << 32)
+        | ((long) mutantNucleotide << 34)
+        | ((long) wildTypeAminoAcid << 36)
+        | ((long) mutantAminoAcid << 41)
+        | ((long) epitopeClass << 46);
+  }
+
+  // nucleotide site, counting from 0
+  public int getSite() {
+    return (int) packed;
+  }
+
+  public char getWildTypeNucleotide() {
+    return nucleotide((int) (packed >>> 32) & 3);
+  }
+
+  public char getMutantNucleotide() {
+    return nucleotide((int) (packed >>> 34) & 3);
+  }
+
+  public char getWildTypeAminoAcid() {
+    return aminoAcid((int) (packed >>> 36) & 31);
+  }
+
+  public char getMutantAminoAcid() {
+    return aminoAcid((int) (packed >>> 41) & 31);
+  }
+
+  public boolean isSynonymous() {
+    return getWildTypeAminoAcid() == getMutantAminoAcid();
+  }
+
+  public int getEpitopeClass() {
+    return (int) (packed >>> 46) & 3;
+  }
+
+  public String getEpitopeClassName() {
+    return CLASS_NAMES[getEpitopeClass()];
+  }
+
+  public double getVectorA() {
+    return vectorA;
+  }
+
+  public double getVectorB() {
+    return vectorB;
+  }
+
+  public Mutation getPrevious() {
+    return previous;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  // number of mutations on the lineage ending in m, 0 for none
+  public static int count(Mutation m) {
+    return m == null ? 0 : m.count;
+  }
+
+  private static char nucleotide(int index) {
+    return Biology.AlphabetType.NUCLEOTIDES.getValidCharacters().charAt(index);
+  }
+
+  private static char aminoAcid(int index) {
+    return Biology.AlphabetType.AMINO_ACIDS.getValidCharacters().charAt(index);
+  }
+}
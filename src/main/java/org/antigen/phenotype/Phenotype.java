@@ -2,12 +2,30 @@
 
 package org.antigen.phenotype;
 
+import java.util.Arrays;
+
 public interface Phenotype {
 
   // provides the risk of infection (from 0 to 1) of a virus with this phenotype
   // when contacting a Host with a List of Phenotypes forming their immune history
   double riskOfInfection(Phenotype[] immuneHistory);
 
+  // risk of infection against the first length entries of an immune history buffer
+  default double riskOfInfection(Phenotype[] immuneHistory, int length) {
+    if (length == immuneHistory.length) {
+      return riskOfInfection(immuneHistory);
+    }
+    return riskOfInfection(Arrays.copyOf(immuneHistory, length));
+  }
+
+  // risk of infection against each history in the batch, written to risks[offset + i]
+  // phenotypes with packed coordinates override this to skip per-host dispatch
+  default void riskOfInfection(HistoryBatch histories, double[] risks, int offset) {
+    for (int i = 0; i < histories.size(); i++) {
+      risks[offset + i] = riskOfInfection(histories.getHistory(i), histories.getHistoryLength(i));
+    }
+  }
+
   // return mutated Phenotype object
   // returned Phenotype is a newly constructed copy of original
   Phenotype mutate();
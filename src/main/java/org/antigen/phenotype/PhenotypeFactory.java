@@ -10,9 +10,31 @@ public class PhenotypeFactory {
   public static String GEOMETRIC = "geometric";
   public static String GEOMETRIC3D = "geometric3d";
   public static String GEOMETRIC10D = "geometric10d";
+  public static String GEOMETRIC_ND = "geometricND";
   public static String SEQUENCE = "sequence";
   public static String GEOMETRIC_SEQ = "geometricSeq";
 
+  // geometric3d and geometric10d are fixed-dimension names for geometricND
+  private static boolean isGeometricND() {
+    return GEOMETRIC_ND.equals(Parameters.phenotypeSpace)
+        || GEOMETRIC3D.equals(Parameters.phenotypeSpace)
+        || GEOMETRIC10D.equals(Parameters.phenotypeSpace);
+  }
+
+  // number of dimensions of the antigenic space given by Parameters.phenotypeSpace
+  public static int getDimensions() {
+    if (GEOMETRIC3D.equals(Parameters.phenotypeSpace)) {
+      return 3;
+    }
+    if (GEOMETRIC10D.equals(Parameters.phenotypeSpace)) {
+      return 10;
+    }
+    if (GEOMETRIC_ND.equals(Parameters.phenotypeSpace)) {
+      return Parameters.phenotypeDimensions;
+    }
+    return 2;
+  }
+
   // returns newly instantiated Phenotype objects of type according to Parameters.phenotypeSpace
   public static Phenotype makeVirusPhenotype() {
 
@@ -20,11 +42,8 @@ public class PhenotypeFactory {
     if (GEOMETRIC.equals(Parameters.phenotypeSpace)) {
       p = new GeometricPhenotype();
     }
-    if (GEOMETRIC3D.equals(Parameters.phenotypeSpace)) {
-      p = new GeometricPhenotype3D();
-    }
-    if (GEOMETRIC10D.equals(Parameters.phenotypeSpace)) {
-      p = new GeometricPhenotype10D();
+    if (isGeometricND()) {
+      p = new GeometricPhenotypeND(getDimensions());
     }
     if (GEOMETRIC_SEQ.equals(Parameters.phenotypeSpace)) {
       p = new GeometricSeqPhenotype();
@@ -39,12 +58,10 @@ public class PhenotypeFactory {
     if (GEOMETRIC.equals(Parameters.phenotypeSpace)) {
       p = new GeometricPhenotype(Parameters.initialTraitA, 0);
     }
-    if (GEOMETRIC3D.equals(Parameters.phenotypeSpace)) {
-      p = new GeometricPhenotype3D(Parameters.initialTraitA, 0, 0);
-    }
-    if (GEOMETRIC10D.equals(Parameters.phenotypeSpace)) {
-      double[] traits = {Parameters.initialTraitA, 0, 0, 0, 0, 0, 0, 0, 0, 0};
-      p = new GeometricPhenotype10D(traits);
+    if (isGeometricND()) {
+      GeometricPhenotypeND nd = new GeometricPhenotypeND(getDimensions());
+      nd.setTrait(0, Parameters.initialTraitA);
+      p = nd;
     }
     if (GEOMETRIC_SEQ.equals(Parameters.phenotypeSpace)) {
       String startingSequence = Parameters.startingSequence;
@@ -0,0 +1,148 @@
+/* Canonical instances of phenotypes, so equal phenotypes are shared as a single object */
+/* Keyed by type, coordinates and, for sequence phenotypes, sequence, mutation counts and the */
+/* identity of the last recorded mutation, so a pooled phenotype never joins another lineage */
+/* Pooled phenotypes are held weakly and dropped once no virus or host references them */
+/* A completely static class */
+
+package org.antigen.phenotype;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.antigen.core.Parameters;
+
+public class PhenotypePool {
+
+  private static final ConcurrentHashMap<Key, Entry> pool = new ConcurrentHashMap<>();
+  private static final ReferenceQueue<Phenotype> collected = new ReferenceQueue<>();
+  private static final AtomicLong lookups = new AtomicLong();
+  private static final AtomicLong hits = new AtomicLong();
+
+  // returns the pooled phenotype equal to p, pooling p if there is none
+  // p is returned unchanged when Parameters.internPhenotypes is off or p has no coordinates
+  public static Phenotype intern(Phenotype p) {
+    if (!Parameters.internPhenotypes || !(p instanceof Coordinates)) {
+      return p;
+    }
+    expunge();
+    lookups.incrementAndGet();
+    Key key = new Key(p);
+    Entry entry = new Entry(p, key, collected);
+    while (true) {
+      Entry existing = pool.putIfAbsent(key, entry);
+      if (existing == null) {
+        return p;
+      }
+      Phenotype canonical = existing.get();
+      if (canonical != null) {
+        if (canonical != p) {
+          hits.incrementAndGet();
+        }
+        return canonical;
+      }
+      // pooled phenotype was collected, take its place
+      if (pool.replace(key, existing, entry)) {
+        return p;
+      }
+    }
+  }
+
+  // number of phenotypes currently pooled
+  public static int size() {
+    expunge();
+    return pool.size();
+  }
+
+  // number of phenotypes looked up since the last clear
+  public static long getLookups() {
+    return lookups.get();
+  }
+
+  // number of lookups that returned an existing equal phenotype instead of a new copy
+  public static long getHits() {
+    return hits.get();
+  }
+
+  public static void clear() {
+    pool.clear();
+    lookups.set(0);
+    hits.set(0);
+  }
+
+  // drop entries whose phenotype has been collected
+  private static void expunge() {
+    Entry e;
+    while ((e = (Entry) collected.poll()) != null) {
+      pool.remove(e.key, e);
+    }
+  }
+
+  private static class Entry extends WeakReference<Phenotype> {
+    private final Key key;
+
+    Entry(Phenotype p, Key key, ReferenceQueue<Phenotype> queue) {
+      super(p, queue);
+      this.key = key;
+    }
+  }
+
+  // value of a phenotype at the time it is pooled
+  // coordinates are copied, as tree output may later move phenotypes in place
+  private static class Key {
+    private final Class<?> type;
+    private final double[] coordinates;
+    private final char[] sequence;
+    private final int[] counts;
+    private final Mutation lastMutation; // compared by identity, null unless recordMutations
+    private final int hash;
+
+    Key(Phenotype p) {
+      type = p.getClass();
+      Coordinates c = (Coordinates) p;
+      coordinates = new double[c.getDimensions()];
+      for (int i = 0; i < coordinates.length; i++) {
+        coordinates[i] = c.getTrait(i);
+      }
+      if (p instanceof GeometricSeqPhenotype) {
+        GeometricSeqPhenotype seq = (GeometricSeqPhenotype) p;
+        sequence = seq.getNucleotides();
+        counts = seq.getMutationCounts();
+        lastMutation = seq.getLastMutation();
+      } else {
+        sequence = null;
+        counts = null;
+        lastMutation = null;
+      }
+      int h = type.hashCode();
+      h = 31 * h + Arrays.hashCode(coordinates);
+      h = 31 * h + Arrays.hashCode(sequence);
+      h = 31 * h + Arrays.hashCode(counts);
+      h = 31 * h + System.identityHashCode(lastMutation);
+      hash = h;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key k = (Key) o;
+      return hash == k.hash
+          && type == k.type
+          && Arrays.equals(coordinates, k.coordinates)
+          && Arrays.equals(sequence, k.sequence)
+          && Arrays.equals(counts, k.counts)
+          && lastMutation == k.lastMutation;
+    }
+  }
+}
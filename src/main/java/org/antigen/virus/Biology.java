@@ -1,10 +1,14 @@
 package org.antigen.virus;
 
 import java.awt.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
 import org.antigen.core.Parameters;
 import org.antigen.core.Random;
 
@@ -41,29 +45,17 @@ public class Biology {
         };
     ;
 
+    /** Probability of accepting each [site][wild type][mutant] amino acid change, or null */
+    private float[][][] acceptance = null;
+
     DMSData() {
       try {
         // Only initialize aminoAcidPreference if DMS data is provided.
         if (Parameters.DMSFile != null) {
-          int numberOfAminoAcidSites = Parameters.startingSequence.length() / 3;
-          int numberOfAminoAcids = Biology.AlphabetType.AMINO_ACIDS.getValidCharacters().length();
-          aminoAcidPreference = new double[numberOfAminoAcidSites][numberOfAminoAcids];
-
-          Scanner dms =
-              new Scanner(Biology.class.getClassLoader().getResourceAsStream(Parameters.DMSFile));
-          dms.nextLine(); // read header
-
-          for (int i = 0; i < numberOfAminoAcidSites; i++) {
-            Scanner currentSite = new Scanner(dms.nextLine());
-            currentSite.useDelimiter(",");
-
-            currentSite.next(); // ignore site number
-
-            for (int j = 0; j < numberOfAminoAcids; j++) {
-              double probability = currentSite.nextDouble();
-              aminoAcidPreference[i][j] = probability;
-            }
-          }
+          aminoAcidPreference =
+              readPreferences(
+                  Biology.class.getClassLoader().getResourceAsStream(Parameters.DMSFile));
+          acceptance = acceptanceTable(aminoAcidPreference);
         }
       } catch (Exception e) {
         e.printStackTrace();
@@ -77,6 +69,110 @@ public class Biology {
       }
       return aminoAcidPreference[site];
     }
+
+    /**
+     * Returns the probability of accepting a change between two amino acids at a site, which is 1
+     * if DMS data is not provided
+     *
+     * @param site amino acid site {0, . . ., total number of sites - 1}
+     * @param wildType index of the wild type amino acid in AMINO_ACIDS
+     * @param mutant index of the mutant amino acid in AMINO_ACIDS
+     * @return acceptance probability of the mutation
+     */
+    public double getAcceptance(int site, int wildType, int mutant) {
+      if (acceptance == null) {
+        return 1.0;
+      }
+      return acceptance[site][wildType][mutant];
+    }
+  }
+
+  /**
+   * Reads a DMS csv into per-site amino acid preferences. The header line and the first (site
+   * number) column are skipped, and the file is read in one go rather than line by line.
+   *
+   * @param in DMS csv with a header and one row per amino acid site
+   * @return preferences indexed [site][amino acid]
+   * @throws IOException if the stream can't be read or a row has the wrong number of columns
+   */
+  public static double[][] readPreferences(InputStream in) throws IOException {
+    int numberOfAminoAcids = AlphabetType.AMINO_ACIDS.getValidCharacters().length();
+    byte[] bytes;
+    try (InputStream stream = in) {
+      bytes = stream.readAllBytes();
+    }
+
+    List<double[]> rows = new ArrayList<>();
+    int pos = 0;
+    boolean header = true;
+    while (pos < bytes.length) {
+      int lineEnd = pos;
+      while (lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+        lineEnd++;
+      }
+      int end = lineEnd;
+      if (end > pos && bytes[end - 1] == '\r') {
+        end--;
+      }
+      if (header) {
+        header = false;
+      } else if (end > pos) {
+        double[] row = new double[numberOfAminoAcids];
+        int column = -1; // the site number column
+        int fieldStart = pos;
+        for (int i = pos; i <= end; i++) {
+          if (i == end || bytes[i] == ',') {
+            if (column >= numberOfAminoAcids) {
+              throw new IOException("Too many columns in DMS row " + (rows.size() + 1));
+            }
+            if (column >= 0) {
+              row[column] =
+                  Double.parseDouble(
+                      new String(bytes, fieldStart, i - fieldStart, StandardCharsets.US_ASCII));
+            }
+            column++;
+            fieldStart = i + 1;
+          }
+        }
+        if (column != numberOfAminoAcids) {
+          throw new IOException("Too few columns in DMS row " + (rows.size() + 1));
+        }
+        rows.add(row);
+      }
+      pos = lineEnd + 1;
+    }
+    return rows.toArray(new double[0][]);
+  }
+
+  /**
+   * Builds the acceptance of every amino acid change at every site from the ratio of mutant to wild
+   * type preference, min(1, exp(log p_mutant - log p_wildType)), so changes to a preferred amino
+   * acid are always accepted. A wild type with zero preference accepts every change.
+   *
+   * @param preferences preferences indexed [site][amino acid]
+   * @return acceptance indexed [site][wild type][mutant]
+   */
+  public static float[][][] acceptanceTable(double[][] preferences) {
+    float[][][] table = new float[preferences.length][][];
+    for (int site = 0; site < preferences.length; site++) {
+      int n = preferences[site].length;
+      double[] logPreference = new double[n];
+      for (int a = 0; a < n; a++) {
+        logPreference[a] = Math.log(preferences[site][a]);
+      }
+      table[site] = new float[n][n];
+      for (int wildType = 0; wildType < n; wildType++) {
+        for (int mutant = 0; mutant < n; mutant++) {
+          double logRatio = logPreference[mutant] - logPreference[wildType];
+          if (logPreference[wildType] == Double.NEGATIVE_INFINITY || logRatio >= 0.0) {
+            table[site][wildType][mutant] = 1.0f;
+          } else {
+            table[site][wildType][mutant] = (float) Math.exp(logRatio);
+          }
+        }
+      }
+    }
+    return table;
   }
 
   /**
@@ -87,6 +183,9 @@ public class Biology {
     MUTATION();
     public final Map<Character, double[]> transitionTranversionProbability;
 
+    /** Cumulative probabilities indexed by nucleotide index (A, C, G, T), same as the map */
+    private final double[][] cumulativeProbability = new double[4][];
+
     /**
      * Constructor that creates an array of "boundaries" for each nucleotide, where each possible
      * mutation is weighted by a pre-defined transition/transversion ratio.
@@ -131,6 +230,10 @@ public class Biology {
                   new double[] {transversionProb, transversionProb + transitionProb, 1.0, 1.0});
             }
           };
+      String nucleotides = Biology.AlphabetType.NUCLEOTIDES.getValidCharacters();
+      for (int i = 0; i < 4; i++) {
+        cumulativeProbability[i] = transitionTranversionProbability.get(nucleotides.charAt(i));
+      }
     }
 
     /**
@@ -141,10 +244,10 @@ public class Biology {
      */
     public char sampleNucleotide(char originalNucleotideToMutate) {
       double[] transitionTransversion =
-          this.transitionTranversionProbability.get(originalNucleotideToMutate);
+          this.cumulativeProbability[nucleotideIndex(originalNucleotideToMutate)];
 
       // Choose a random number between 0-1
-      double randomNum = Math.random();
+      double randomNum = Random.nextDouble();
       int indexAlphabet = 0;
 
       for (int i = 0; i < 4; i++) {
@@ -158,11 +261,193 @@ public class Biology {
     }
   }
 
+  /**
+   * Returns the index of a nucleotide in "ACGT", or -1 if it is not a valid nucleotide
+   *
+   * @param nucleotide the nucleotide
+   * @return 0 for A, 1 for C, 2 for G, 3 for T
+   */
+  public static int nucleotideIndex(char nucleotide) {
+    switch (nucleotide) {
+      case 'A':
+        return 0;
+      case 'C':
+        return 1;
+      case 'G':
+        return 2;
+      case 'T':
+        return 3;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Samples point mutations under the K80 model without producing STOP codons. A mutation context
+   * is a codon (indexed 16 * first + 4 * second + third nucleotide index) together with the
+   * position {0, 1, 2} being mutated. For each of the 64 * 3 contexts this holds the K80
+   * probability that the mutation does not create a STOP codon, and an alias table for the new
+   * nucleotide conditional on not creating one.
+   *
+   * <p>Drawing a uniform site, accepting it with the probability for its context, then drawing the
+   * new nucleotide from the alias table gives the same joint distribution of (site, nucleotide) as
+   * redrawing both until the mutant codon is not STOP. The acceptance is 1 for every context that
+   * cannot reach a STOP codon, so most sites are accepted on the first draw.
+   */
+  public enum MutationSampler {
+    SAMPLER();
+
+    /** Probability that a mutation in each context does not create a STOP codon */
+    private final double[] acceptance = new double[64 * 3];
+
+    /** Alias table over the four nucleotides for each context, 4 entries per context */
+    private final double[] aliasProbability = new double[64 * 3 * 4];
+
+    private final int[] alias = new int[64 * 3 * 4];
+
+    MutationSampler() {
+      String nucleotides = Biology.AlphabetType.NUCLEOTIDES.getValidCharacters();
+      for (int codon = 0; codon < 64; codon++) {
+        for (int position = 0; position < 3; position++) {
+          int context = 3 * codon + position;
+          int shift = 2 * (2 - position);
+          int wildType = (codon >> shift) & 3;
+          double[] cumulative = K80DNAEvolutionModel.MUTATION.cumulativeProbability[wildType];
+
+          // K80 probability of each new nucleotide, dropping those that give a STOP codon
+          double[] weights = new double[4];
+          double total = 0.0;
+          for (int n = 0; n < 4; n++) {
+            double p = cumulative[n] - (n > 0 ? cumulative[n - 1] : 0.0);
+            int mutantCodon = (codon & ~(3 << shift)) | (n << shift);
+            if (n != wildType && !"STOP".equals(CodonMap.CODONS.getAminoAcid(mutantCodon))) {
+              weights[n] = p;
+              total += p;
+            }
+          }
+          acceptance[context] = total;
+          if (total > 0.0) {
+            for (int n = 0; n < 4; n++) {
+              weights[n] /= total;
+            }
+            buildAlias(weights, 4 * context);
+          }
+        }
+      }
+    }
+
+    // Vose's alias method for a distribution over the four nucleotides
+    private void buildAlias(double[] probabilities, int offset) {
+      double[] scaled = new double[4];
+      int[] small = new int[4];
+      int[] large = new int[4];
+      int smallCount = 0;
+      int largeCount = 0;
+      for (int n = 0; n < 4; n++) {
+        scaled[n] = probabilities[n] * 4;
+        if (scaled[n] < 1.0) {
+          small[smallCount++] = n;
+        } else {
+          large[largeCount++] = n;
+        }
+      }
+      while (smallCount > 0 && largeCount > 0) {
+        int less = small[--smallCount];
+        int more = large[--largeCount];
+        aliasProbability[offset + less] = scaled[less];
+        alias[offset + less] = more;
+        scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+        if (scaled[more] < 1.0) {
+          small[smallCount++] = more;
+        } else {
+          large[largeCount++] = more;
+        }
+      }
+      while (largeCount > 0) {
+        int more = large[--largeCount];
+        aliasProbability[offset + more] = 1.0;
+        alias[offset + more] = more;
+      }
+      while (smallCount > 0) {
+        int less = small[--smallCount];
+        aliasProbability[offset + less] = 1.0;
+        alias[offset + less] = less;
+      }
+    }
+
+    /**
+     * Returns the mutation context of a nucleotide site
+     *
+     * @param sequence nucleotide sequence, a whole number of codons
+     * @param site index of the nucleotide to mutate
+     * @return index of the (codon, position) context
+     */
+    public int getContext(char[] sequence, int site) {
+      int first = site - site % 3;
+      int codon =
+          16 * nucleotideIndex(sequence[first])
+              + 4 * nucleotideIndex(sequence[first + 1])
+              + nucleotideIndex(sequence[first + 2]);
+      return 3 * codon + site % 3;
+    }
+
+    /**
+     * Returns the codon (as an index) of a context
+     *
+     * @param context mutation context
+     * @return codon index of the context
+     */
+    public int getCodon(int context) {
+      return context / 3;
+    }
+
+    /**
+     * Returns the probability that a mutation in this context does not create a STOP codon
+     *
+     * @param context mutation context
+     * @return acceptance probability of the site
+     */
+    public double getAcceptance(int context) {
+      return acceptance[context];
+    }
+
+    /**
+     * Accepts a site with the probability that mutating it does not create a STOP codon. Only draws
+     * a random number when that probability is below 1.
+     *
+     * @param context mutation context of the site
+     * @return whether to mutate the site
+     */
+    public boolean acceptSite(int context) {
+      double p = acceptance[context];
+      return p >= 1.0 || (p > 0.0 && Random.nextDouble() < p);
+    }
+
+    /**
+     * Draws the new nucleotide for an accepted site in O(1)
+     *
+     * @param context mutation context of the site
+     * @return index of the new nucleotide, never giving a STOP codon
+     */
+    public int sampleNucleotide(int context) {
+      double u = 4 * Random.nextDouble();
+      int n = Math.min((int) u, 3);
+      int offset = 4 * context;
+      return (u - n) < aliasProbability[offset + n] ? n : alias[offset + n];
+    }
+  }
+
   /** DNA codon table */
   public enum CodonMap {
     CODONS();
     public final Map<String, String> codonMap;
 
+    /** Amino acid of each codon indexed 16 * first + 4 * second + third nucleotide index */
+    private final String[] aminoAcidByIndex = new String[64];
+
+    /** Index in AMINO_ACIDS of each codon's amino acid, -1 for STOP */
+    private final int[] aminoAcidIndex = new int[64];
+
     CodonMap() {
       this.codonMap =
           new HashMap<String, String>() {
@@ -248,6 +533,18 @@ public class Biology {
               put("GGG", "G");
             }
           };
+
+      String nucleotides = Biology.AlphabetType.NUCLEOTIDES.getValidCharacters();
+      for (int codon = 0; codon < 64; codon++) {
+        String triplet =
+            ""
+                + nucleotides.charAt(codon >> 4)
+                + nucleotides.charAt((codon >> 2) & 3)
+                + nucleotides.charAt(codon & 3);
+        aminoAcidByIndex[codon] = codonMap.get(triplet);
+        aminoAcidIndex[codon] =
+            Biology.AlphabetType.AMINO_ACIDS.getValidCharacters().indexOf(aminoAcidByIndex[codon]);
+      }
     }
 
     /**
@@ -259,6 +556,27 @@ public class Biology {
     public String getAminoAcid(String codon) {
       return this.codonMap.get(codon);
     }
+
+    /**
+     * Translates and returns the amino acid specified by the given codon index
+     *
+     * @param codon index of the codon, 16 * first + 4 * second + third nucleotide index
+     * @return the corresponding amino acid
+     */
+    public String getAminoAcid(int codon) {
+      return aminoAcidByIndex[codon];
+    }
+
+    /**
+     * Returns the index in AMINO_ACIDS of the amino acid specified by the given codon index, which
+     * is the column order of DMS preferences
+     *
+     * @param codon index of the codon, 16 * first + 4 * second + third nucleotide index
+     * @return index of the amino acid, or -1 for a STOP codon
+     */
+    public int getAminoAcidIndex(int codon) {
+      return aminoAcidIndex[codon];
+    }
   }
 
   /**
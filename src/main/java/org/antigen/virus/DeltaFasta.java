@@ -0,0 +1,112 @@
+/* Tip sequences written as differences, a compact alternative to the full FASTA file */
+/* The first line holds the reference, Parameters.startingSequence, after "#reference " */
+/* Each tip follows as its usual FASTA header and a line of the sites where it differs from the */
+/* tip before it, or from the reference for the first tip, as space separated <site><nucleotide> */
+/* with sites counted from 1 */
+/* Tips are written in depth-first order over the tree, so neighbouring tips are close relatives */
+/* and their lines are short */
+/* Run main to expand a delta file to standard FASTA */
+
+package org.antigen.virus;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.antigen.core.OutputCodecs;
+import org.antigen.phenotype.GeometricSeqPhenotype;
+
+public class DeltaFasta {
+
+  public static final String EXTENSION = ".dfasta";
+  static final String REFERENCE = "#reference ";
+
+  // write the reference and then tips in the given order of their indices, numbered by index
+  public static void write(PrintStream out, char[] reference, List<Virus> tips, int[] order) {
+    out.print(REFERENCE);
+    out.print(reference);
+    out.print('\n');
+
+    char[] previous = reference.clone();
+    StringBuilder line = new StringBuilder();
+    for (int k : order) {
+      Virus v = tips.get(k);
+      out.printf(">seq%d|%f|%f\n", k, v.getBirth(), v.getFitness());
+      GeometricSeqPhenotype p = (GeometricSeqPhenotype) v.getPhenotype();
+      line.setLength(0);
+      for (int i = 0; i < previous.length; i++) {
+        char c = p.getNucleotide(i);
+        if (c != previous[i]) {
+          if (line.length() > 0) {
+            line.append(' ');
+          }
+          line.append(i + 1).append(c);
+          previous[i] = c;
+        }
+      }
+      line.append('\n');
+      out.append(line);
+    }
+  }
+
+  // write each tip of a delta file as a FASTA record, in the order of the delta file
+  public static void expand(BufferedReader in, PrintStream out) throws IOException {
+    String first = in.readLine();
+    if (first == null || !first.startsWith(REFERENCE)) {
+      throw new IOException("Not a delta FASTA file");
+    }
+    char[] current = first.substring(REFERENCE.length()).toCharArray();
+
+    String header;
+    while ((header = in.readLine()) != null) {
+      String changes = in.readLine();
+      if (!header.startsWith(">") || changes == null) {
+        throw new IOException("Malformed record " + header);
+      }
+      int start = 0;
+      while (start < changes.length()) {
+        int end = changes.indexOf(' ', start);
+        if (end < 0) {
+          end = changes.length();
+        }
+        int site = Integer.parseInt(changes, start, end - 1, 10);
+        current[site - 1] = changes.charAt(end - 1);
+        start = end + 1;
+      }
+      out.print(header);
+      out.print('\n');
+      out.print(current);
+      out.print('\n');
+    }
+  }
+
+  // expands a delta file, compressed or not, usage: DeltaFasta run-out.dfasta [run-out.fasta]
+  public static void main(String[] args) {
+    if (args.length < 1) {
+      System.out.println("Usage: DeltaFasta <delta file> [<fasta file>]");
+      System.exit(0);
+    }
+    try (InputStream source = OutputCodecs.decode(new FileInputStream(args[0]))) {
+      BufferedReader in =
+          new BufferedReader(new InputStreamReader(source, StandardCharsets.UTF_8), 1 << 16);
+      PrintStream out =
+          args.length > 1
+              ? new PrintStream(new BufferedOutputStream(new FileOutputStream(args[1]), 1 << 16))
+              : System.out;
+      expand(in, out);
+      out.flush();
+      if (out != System.out) {
+        out.close();
+      }
+    } catch (IOException | RuntimeException ex) {
+      System.out.println("Could not expand delta FASTA: " + ex.getMessage());
+      System.exit(0);
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/* McDonald-Kreitman style counts of antigenic changes on trunk and side branches */
+/* A branch runs from a virus to its parent, and is counted when the virus was born before cutoff */
+/* Counts are also binned by the year of the virus's birth */
+/* Accumulators can be merged, so a list of nodes can be reduced in parallel */
+
+package org.antigen.virus;
+
+import java.io.*;
+import java.util.*;
+
+public class MKStatistics {
+
+  // fields
+  private final double cutoff; // only branches to viruses born before this date are counted
+  private int sideBranchMutations;
+  private double sideBranchOpportunity;
+  private int trunkMutations;
+  private double trunkOpportunity;
+  // by year: {sideBranchMutations, sideBranchOpportunity, trunkMutations, trunkOpportunity}
+  private TreeMap<Integer, double[]> years = new TreeMap<>();
+
+  public MKStatistics(double cutoff) {
+    this.cutoff = cutoff;
+  }
+
+  // counts over all branches ending in the given nodes, reduced in parallel
+  public static MKStatistics of(List<Virus> nodes, double cutoff) {
+    return nodes.parallelStream()
+        .collect(() -> new MKStatistics(cutoff), MKStatistics::add, MKStatistics::merge);
+  }
+
+  // count the branch from v to its parent
+  public void add(Virus v) {
+    Virus vp = v.getParent();
+    if (vp == null || v.getBirth() >= cutoff) {
+      return;
+    }
+    boolean mutation = v.getPhenotype() != vp.getPhenotype();
+    double time = v.getBirth() - vp.getBirth();
+    if (v.isTrunk() && vp.isTrunk()) {
+      double[] year = getYear(v);
+      trunkOpportunity += time;
+      year[3] += time;
+      if (mutation) {
+        trunkMutations++;
+        year[2]++;
+      }
+    } else if (!v.isTrunk() && !vp.isTrunk()) {
+      double[] year = getYear(v);
+      sideBranchOpportunity += time;
+      year[1] += time;
+      if (mutation) {
+        sideBranchMutations++;
+        year[0]++;
+      }
+    }
+  }
+
+  private double[] getYear(Virus v) {
+    return years.computeIfAbsent((int) Math.floor(v.getBirth()), y -> new double[4]);
+  }
+
+  public void merge(MKStatistics other) {
+    sideBranchMutations += other.sideBranchMutations;
+    sideBranchOpportunity += other.sideBranchOpportunity;
+    trunkMutations += other.trunkMutations;
+    trunkOpportunity += other.trunkOpportunity;
+    for (Map.Entry<Integer, double[]> entry : other.years.entrySet()) {
+      double[] year = years.computeIfAbsent(entry.getKey(), y -> new double[4]);
+      for (int k = 0; k < 4; k++) {
+        year[k] += entry.getValue()[k];
+      }
+    }
+  }
+
+  public int getSideBranchMutations() {
+    return sideBranchMutations;
+  }
+
+  public double getSideBranchOpportunity() {
+    return sideBranchOpportunity;
+  }
+
+  public int getTrunkMutations() {
+    return trunkMutations;
+  }
+
+  public double getTrunkOpportunity() {
+    return trunkOpportunity;
+  }
+
+  public double getSideBranchRate() {
+    return sideBranchMutations / sideBranchOpportunity;
+  }
+
+  public double getTrunkRate() {
+    return trunkMutations / trunkOpportunity;
+  }
+
+  public double getMKRatio() {
+    return getTrunkRate() / getSideBranchRate();
+  }
+
+  // one row per year: year, side branch and trunk counts and opportunities, rates and MK ratio
+  public void printByYear(PrintStream stream) {
+    stream.print(
+        "year\tsideBranchMutations\tsideBranchOpportunity\ttrunkMutations\ttrunkOpportunity"
+            + "\tsideBranchRate\ttrunkRate\tmkRatio\n");
+    for (Map.Entry<Integer, double[]> entry : years.entrySet()) {
+      double[] y = entry.getValue();
+      double sideBranchRate = y[0] / y[1];
+      double trunkRate = y[2] / y[3];
+      stream.printf(
+          "%d\t%d\t%.4f\t%d\t%.4f\t%.4f\t%.4f\t%.4f\n",
+          entry.getKey(),
+          (int) y[0],
+          y[1],
+          (int) y[2],
+          y[3],
+          sideBranchRate,
+          trunkRate,
+          trunkRate / sideBranchRate);
+    }
+  }
+}
@@ -0,0 +1,61 @@
+/* Index over the sampled tips of VirusTree, ordered by birth and counted by deme */
+/* Built once from a list of tips, window queries are a binary search over birth times */
+
+package org.antigen.virus;
+
+import java.util.*;
+import org.antigen.core.Parameters;
+import org.antigen.core.Random;
+
+public class TipIndex {
+
+  // fields
+  private Virus[] tipsByBirth; // tips sorted by birth, ties keep list order
+  private double[] births; // births[i] is the birth of tipsByBirth[i]
+  private int[] demeCounts; // number of tips in each deme
+
+  public TipIndex(List<Virus> tips) {
+    tipsByBirth = tips.toArray(new Virus[0]);
+    Arrays.sort(tipsByBirth, Comparator.comparingDouble(Virus::getBirth));
+    births = new double[tipsByBirth.length];
+    demeCounts = new int[Parameters.demeCount];
+    for (int i = 0; i < tipsByBirth.length; i++) {
+      births[i] = tipsByBirth[i].getBirth();
+      demeCounts[tipsByBirth[i].getDeme()]++;
+    }
+  }
+
+  public int getDemeCount(int d) {
+    return demeCounts[d];
+  }
+
+  // number of tips born in [from, to)
+  public int countFromTo(double from, double to) {
+    return Math.max(0, firstAtOrAfter(to) - firstAtOrAfter(from));
+  }
+
+  // uniformly chosen tip born in [from, to), or null if there is none
+  public Virus getRandomTipFromTo(double from, double to) {
+    int start = firstAtOrAfter(from);
+    int end = firstAtOrAfter(to);
+    if (end <= start) {
+      return null;
+    }
+    return tipsByBirth[Random.nextInt(start, end - 1)];
+  }
+
+  // index of the first tip born at or after time, tipsByBirth.length if there is none
+  private int firstAtOrAfter(double time) {
+    int lo = 0;
+    int hi = births.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (births[mid] < time) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
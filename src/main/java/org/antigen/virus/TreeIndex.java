@@ -0,0 +1,101 @@
+/* Flat index over the genealogy below a root, built once by an iterative depth-first walk */
+/* Nodes are numbered in the order postOrderNodes has always listed them, each node before */
+/* its children and children in list order, so the subtree of node i is i .. i + size[i] - 1 */
+/* Must be rebuilt whenever children lists change */
+
+package org.antigen.virus;
+
+import java.util.*;
+
+public class TreeIndex {
+
+  // fields
+  private Virus[] nodes; // nodes in depth-first order
+  private int[] parent; // index of parent, -1 for the root
+  private int[] firstChild; // index of first child, -1 for tips
+  private int[] nextSibling; // index of next child of the same parent, -1 for the last
+  private int[] size; // number of nodes in the subtree, including the node itself
+
+  public TreeIndex(Virus root) {
+
+    // depth-first walk with an explicit stack, children pushed in reverse to keep list order
+    List<Virus> order = new ArrayList<>();
+    List<Integer> parents = new ArrayList<>();
+    Deque<Virus> stack = new ArrayDeque<>();
+    Deque<Integer> parentStack = new ArrayDeque<>();
+    stack.push(root);
+    parentStack.push(-1);
+    while (!stack.isEmpty()) {
+      Virus v = stack.pop();
+      int p = parentStack.pop();
+      int index = order.size();
+      order.add(v);
+      parents.add(p);
+      List<Virus> children = v.getChildren();
+      for (int k = children.size() - 1; k >= 0; k--) {
+        stack.push(children.get(k));
+        parentStack.push(index);
+      }
+    }
+
+    int n = order.size();
+    nodes = order.toArray(new Virus[n]);
+    parent = new int[n];
+    firstChild = new int[n];
+    nextSibling = new int[n];
+    size = new int[n];
+    Arrays.fill(firstChild, -1);
+    Arrays.fill(nextSibling, -1);
+    int[] lastChild = new int[n];
+    Arrays.fill(lastChild, -1);
+    for (int i = 0; i < n; i++) {
+      int p = parents.get(i);
+      parent[i] = p;
+      if (p >= 0) {
+        if (firstChild[p] < 0) {
+          firstChild[p] = i;
+        } else {
+          nextSibling[lastChild[p]] = i;
+        }
+        lastChild[p] = i;
+      }
+    }
+
+    // children come after their parent, so a reverse scan sees every subtree before its root
+    for (int i = n - 1; i >= 0; i--) {
+      size[i] += 1;
+      if (parent[i] >= 0) {
+        size[parent[i]] += size[i];
+      }
+    }
+  }
+
+  public int getNodeCount() {
+    return nodes.length;
+  }
+
+  public Virus getNode(int i) {
+    return nodes[i];
+  }
+
+  // nodes in depth-first order, read-only view
+  public List<Virus> getNodes() {
+    return Collections.unmodifiableList(Arrays.asList(nodes));
+  }
+
+  public int getParent(int i) {
+    return parent[i];
+  }
+
+  public int getFirstChild(int i) {
+    return firstChild[i];
+  }
+
+  public int getNextSibling(int i) {
+    return nextSibling[i];
+  }
+
+  public int getSize(int i) {
+    return size[i];
+  }
+}
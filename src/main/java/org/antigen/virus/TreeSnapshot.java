@@ -0,0 +1,250 @@
+/* Copy of the genealogy of the sampled tips at one point in the run */
+/* Only tips and branching ancestors are kept, stored in arrays that share nothing mutable */
+/* with the live Viruses, so the snapshot can be written out while the simulation continues */
+
+package org.antigen.virus;
+
+import java.io.*;
+import java.util.*;
+import org.antigen.core.OutputCodecs;
+import org.antigen.phenotype.Phenotype;
+
+public class TreeSnapshot {
+
+  // fields
+  private final double date; // date of the snapshot, in years
+  private final String[] names;
+  private final double[] births;
+  private final int[] demes;
+  private final double[] fitnesses;
+  private final Phenotype[] phenotypes; // phenotypes are not changed during the run
+  private final boolean[] sampled; // whether the node is one of the sampled tips
+  private final int[] parents; // index of the nearest kept ancestor, -1 for the root
+  private final int[] firstChild;
+  private final int[] nextSibling;
+  private final int[] childCounts;
+  private final int root;
+  private final double topBirth; // birth of the oldest ancestor, where root branch lengths end
+  private final boolean
+      rootHasBranch; // whether the root has ancestors, as in VirusTree.printNewick
+
+  // must be called from the simulation thread, tips are not copied
+  public TreeSnapshot(List<Virus> tips, double date) {
+    this.date = date;
+
+    // number every ancestor of a tip, each walk stops at a virus already numbered
+    IdentityHashMap<Virus, Integer> ids = new IdentityHashMap<>();
+    List<Virus> order = new ArrayList<>();
+    for (Virus tip : tips) {
+      Virus v = tip;
+      while (v != null && !ids.containsKey(v)) {
+        ids.put(v, order.size());
+        order.add(v);
+        v = v.getParent();
+      }
+    }
+    int n = order.size();
+    int[] fullParents = new int[n];
+    int[] fullFirstChild = new int[n];
+    int[] fullNextSibling = new int[n];
+    int[] fullChildCounts = new int[n];
+    boolean[] isTip = new boolean[n];
+    Arrays.fill(fullFirstChild, -1);
+    int top = -1;
+    for (int i = 0; i < n; i++) {
+      Virus vp = order.get(i).getParent();
+      if (vp == null) {
+        fullParents[i] = -1;
+        top = i;
+      } else {
+        int p = ids.get(vp);
+        fullParents[i] = p;
+        fullNextSibling[i] = fullFirstChild[p];
+        fullFirstChild[p] = i;
+        fullChildCounts[p]++;
+      }
+    }
+    for (Virus tip : tips) {
+      isTip[ids.get(tip)] = true;
+    }
+
+    // root is the most recent common ancestor, found by walking down single child chains
+    topBirth = order.get(top).getBirth();
+    int fullRoot = top;
+    while (!isTip[fullRoot] && fullChildCounts[fullRoot] == 1) {
+      fullRoot = fullFirstChild[fullRoot];
+    }
+
+    // depth-first walk from the root keeping tips and branching nodes, parents before children
+    // each stack entry holds a node and the kept index of its nearest kept ancestor
+    int[] keptOrder = new int[n];
+    int[] keptParent = new int[n];
+    int kept = 0;
+    Deque<int[]> stack = new ArrayDeque<>();
+    stack.push(new int[] {fullRoot, -1});
+    while (!stack.isEmpty()) {
+      int[] entry = stack.pop();
+      int i = entry[0];
+      int ancestor = entry[1];
+      if (i == fullRoot || isTip[i] || fullChildCounts[i] > 1) {
+        keptOrder[kept] = i;
+        keptParent[kept] = ancestor;
+        ancestor = kept;
+        kept++;
+      }
+      for (int c = fullFirstChild[i]; c >= 0; c = fullNextSibling[c]) {
+        stack.push(new int[] {c, ancestor});
+      }
+    }
+
+    names = new String[kept];
+    births = new double[kept];
+    demes = new int[kept];
+    fitnesses = new double[kept];
+    phenotypes = new Phenotype[kept];
+    sampled = new boolean[kept];
+    parents = Arrays.copyOf(keptParent, kept);
+    firstChild = new int[kept];
+    nextSibling = new int[kept];
+    Arrays.fill(firstChild, -1);
+    Arrays.fill(nextSibling, -1);
+    int[] lastChild = new int[kept];
+    Arrays.fill(lastChild, -1);
+    for (int k = 0; k < kept; k++) {
+      Virus v = order.get(keptOrder[k]);
+      names[k] = v.toString();
+      births[k] = v.getBirth();
+      demes[k] = v.getDeme();
+      fitnesses[k] = v.getFitness();
+      phenotypes[k] = v.getPhenotype();
+      sampled[k] = isTip[keptOrder[k]];
+      int p = parents[k];
+      if (p >= 0) {
+        if (firstChild[p] < 0) {
+          firstChild[p] = k;
+        } else {
+          nextSibling[lastChild[p]] = k;
+        }
+        lastChild[p] = k;
+      }
+    }
+    childCounts = new int[kept];
+    for (int k = 0; k < kept; k++) {
+      if (parents[k] >= 0) {
+        childCounts[parents[k]]++;
+      }
+    }
+    root = 0;
+    rootHasBranch = fullRoot != top;
+  }
+
+  public int getNodeCount() {
+    return names.length;
+  }
+
+  public double getDate() {
+    return date;
+  }
+
+  // writes stem.trees in the format of the end-of-run .trees, and the snapshot's own csv tables to
+  // stem.tips.csv and stem.branches.csv, which differ from the end-of-run .tips and .branches
+  public void print(String stem) throws IOException {
+    printNewick(stem + ".trees");
+    printTips(stem + ".tips.csv");
+    printBranches(stem + ".branches.csv");
+  }
+
+  // as in VirusTree.assessNode, a branch runs back to the nearest ancestor with several children,
+  // or to the oldest ancestor when there is none
+  private double newickHeight(int k) {
+    int a = parents[k];
+    while (a >= 0 && childCounts[a] == 1) {
+      a = parents[a];
+    }
+    return births[k] - (a >= 0 ? births[a] : topBirth);
+  }
+
+  // iterative so that long ladders do not exhaust the stack
+  // events on the stack: 2k enters node k, 2k + 1 leaves it, -1 separates siblings
+  // nodes with a single child, sampled tips with one sampled descendant line, are passed through
+  // and only tips without children are named, matching VirusTree.printNewick
+  private void printNewick(String fileName) throws IOException {
+    PrintStream treeStream = OutputCodecs.open(fileName);
+    Deque<Integer> stack = new ArrayDeque<>();
+    stack.push(2 * root);
+    while (!stack.isEmpty()) {
+      int event = stack.pop();
+      if (event < 0) {
+        treeStream.print(",");
+        continue;
+      }
+      int k = event / 2;
+      if (event % 2 == 0 && childCounts[k] == 1) {
+        stack.push(2 * firstChild[k]);
+        continue;
+      }
+      if (event % 2 == 0 && childCounts[k] > 1) {
+        treeStream.print("(");
+        stack.push(2 * k + 1);
+        List<Integer> children = new ArrayList<>();
+        for (int c = firstChild[k]; c >= 0; c = nextSibling[c]) {
+          children.add(c);
+        }
+        for (int j = children.size() - 1; j >= 0; j--) {
+          stack.push(2 * children.get(j));
+          if (j > 0) {
+            stack.push(-1);
+          }
+        }
+        continue;
+      }
+      if (event % 2 == 1) {
+        treeStream.print(")");
+      } else {
+        treeStream.print(names[k]);
+      }
+      if (k != root || rootHasBranch) {
+        treeStream.printf("[&antigenic={%s}]", phenotypes[k]);
+        treeStream.printf(":%.4f", newickHeight(k));
+      }
+    }
+    treeStream.println();
+    treeStream.close();
+  }
+
+  private void printTips(String fileName) throws IOException {
+    PrintStream tipStream = OutputCodecs.open(fileName);
+    tipStream.printf(
+        "\"%s\",\"%s\",\"%s\",\"%s\",\"%s\"\n", "name", "year", "location", "fitness", "phenotype");
+    for (int k = 0; k < names.length; k++) {
+      if (sampled[k]) {
+        tipStream.printf(
+            "\"%s\",%.4f,%d,%.4f,\"%s\"\n",
+            names[k], births[k], demes[k], fitnesses[k], phenotypes[k]);
+      }
+    }
+    tipStream.close();
+  }
+
+  private void printBranches(String fileName) throws IOException {
+    PrintStream branchStream = OutputCodecs.open(fileName);
+    branchStream.printf(
+        "\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\"\n",
+        "name", "year", "location", "parent", "parentYear", "parentLocation", "antigenicChange");
+    for (int k = 0; k < names.length; k++) {
+      int p = parents[k];
+      if (p >= 0) {
+        branchStream.printf(
+            "\"%s\",%.4f,%d,\"%s\",%.4f,%d,%d\n",
+            names[k],
+            births[k],
+            demes[k],
+            names[p],
+            births[p],
+            demes[p],
+            phenotypes[k] != phenotypes[p] ? 1 : 0);
+      }
+    }
+    branchStream.close();
+  }
+}
@@ -3,17 +3,24 @@
 package org.antigen.virus;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import org.antigen.core.Parameters;
 import org.antigen.phenotype.Phenotype;
 import org.antigen.phenotype.PhenotypeFactory;
+import org.antigen.phenotype.PhenotypePool;
 
 public class Virus {
 
+  // numbers viruses in order of creation, which happens on the simulation thread
+  private static final AtomicLong created = new AtomicLong();
+
   // simulation fields
   private Virus parent;
   private Phenotype phenotype;
   private double birth; // measured in years relative to burnin
   private int deme;
+  private int depth; // number of ancestors, fixed at construction
+  private final long serial = created.getAndIncrement(); // creation order, breaks birth ties
   private double fitness; // seasonal fitness (averageInfectionRisk * seasonality * probSusceptible)
   private double averageInfectionRisk; // raw average risk of infection
   private double probSusceptible; // fraction of susceptible hosts in deme
@@ -35,6 +42,7 @@ public class Virus {
   // replication, copies the virus, but remembers the ancestry
   public Virus(Virus v, int d) {
     parent = v;
+    depth = v.depth + 1;
     phenotype = v.getPhenotype();
     birth = Parameters.getDate();
     deme = d;
@@ -42,6 +50,7 @@ public class Virus {
 
   public Virus(Virus v, int d, Phenotype p) {
     parent = v;
+    depth = v.depth + 1;
     phenotype = p;
     birth = Parameters.getDate();
     deme = d;
@@ -67,14 +76,23 @@ public class Virus {
     return birth;
   }
 
+  public long getSerial() {
+    return serial;
+  }
+
   public Virus getParent() {
     return parent;
   }
 
+  // depth is not updated, this is only used when collapsing the tree after the simulation
   public void setParent(Virus v) {
     parent = v;
   }
 
+  public int getDepth() {
+    return depth;
+  }
+
   public boolean isTrunk() {
     return trunk;
   }
@@ -165,16 +183,16 @@ public class Virus {
   // returns a mutated copy, original virus left intact
   public Virus mutate() {
 
-    Phenotype mutP = phenotype.mutate(); // mutated copy
+    Phenotype mutP = PhenotypePool.intern(phenotype.mutate()); // mutated copy
     Virus mutV = new Virus(this, deme, mutP);
     return mutV;
   }
 
   public Virus commonAncestor(Virus virusB) {
-    // Algorithm proceeds by recursively visiting parents.
-    // It terminates when either lineage arrives at a node already in the ancestry set,
-    // which must have been already visited by the other lineage and thus represents
-    // a common ancestor.
+    // Algorithm walks the deeper lineage back until both lineages are at the same depth, then
+    // walks both back together until they meet, which is the common ancestor.
+    // Depth is fixed at construction, so this is only valid on the genealogy as it is built
+    // during the simulation, before the tree is collapsed.
 
     assert (virusB != null);
     if (virusB == this) {
@@ -183,24 +201,20 @@ public class Virus {
 
     Virus lineageA = this;
     Virus lineageB = virusB;
-    Set<Virus> ancestrySet = new HashSet<>();
-    ancestrySet.add(lineageA);
-    ancestrySet.add(lineageB);
-    while (lineageA != null || lineageB != null) {
-      if (lineageA != null) {
-        lineageA = lineageA.getParent();
-        if (lineageA != null && !ancestrySet.add(lineageA)) {
-          return lineageA;
-        }
-      }
-      if (lineageB != null) {
-        lineageB = lineageB.getParent();
-        if (lineageB != null && !ancestrySet.add(lineageB)) {
-          return lineageB;
-        }
+    while (lineageA.depth > lineageB.depth) {
+      lineageA = lineageA.getParent();
+    }
+    while (lineageB.depth > lineageA.depth) {
+      lineageB = lineageB.getParent();
+    }
+    while (lineageA != lineageB) {
+      lineageA = lineageA.getParent();
+      lineageB = lineageB.getParent();
+      if (lineageA == null || lineageB == null) {
+        return null;
       }
     }
-    return null;
+    return lineageA;
   }
 
   public double distance(Virus virusB) {
@@ -219,41 +233,40 @@ public class Virus {
   }
 
   // is there a coalescence event within x amount of time? (measured in years)
+  // each lineage walks back through its ancestors until it passes windowTime before its birth,
+  // there is a coalescence if the two walks share an ancestor
   public double coalescence(Virus virusB, double windowTime) {
 
-    Virus lineageA = this;
-    Virus lineageB = virusB;
-    Set<Virus> ancestry = new HashSet<>();
-    double success = 0.0;
-
-    double startTime = lineageA.getBirth();
-    double time = startTime;
-    while (time > startTime - windowTime) {
-      if (lineageA.getParent() != null) {
-        lineageA = lineageA.getParent();
-        time = lineageA.getBirth();
-        ancestry.add(lineageA);
-      } else {
-        break;
-      }
+    Virus parentA = getParent();
+    Virus parentB = virusB.getParent();
+    if (parentA == null || parentB == null) {
+      return 0.0;
     }
 
-    startTime = lineageB.getBirth();
-    time = startTime;
-    while (time > startTime - windowTime) {
-      if (lineageB.getParent() != null) {
-        lineageB = lineageB.getParent();
-        time = lineageB.getBirth();
-        if (!ancestry.add(lineageB)) {
-          success = 1.0;
-          break;
-        }
-      } else {
-        break;
-      }
+    // both walks follow ancestry of the parents, so they overlap iff the common ancestor of the
+    // parents lies at or below where each walk stopped
+    Virus ancestor = parentA.commonAncestor(parentB);
+    if (ancestor == null) {
+      return 0.0;
     }
+    Virus endA = windowEnd(windowTime);
+    Virus endB = virusB.windowEnd(windowTime);
+    if (ancestor.depth >= endA.depth && ancestor.depth >= endB.depth) {
+      return 1.0;
+    }
+    return 0.0;
+  }
 
-    return success;
+  // last ancestor visited walking back from this virus until passing windowTime before its birth
+  private Virus windowEnd(double windowTime) {
+    Virus lineage = this;
+    double startTime = getBirth();
+    double time = startTime;
+    while (time > startTime - windowTime && lineage.getParent() != null) {
+      lineage = lineage.getParent();
+      time = lineage.getBirth();
+    }
+    return lineage;
   }
 
   // this is the interval from this virus's birth back to its parent's birth
@@ -4,12 +4,14 @@ package org.antigen.virus;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import org.antigen.analysis.SimplePCA;
+import org.antigen.core.OutputCodecs;
 import org.antigen.core.Parameters;
 import org.antigen.core.Random;
-import org.antigen.phenotype.GeometricPhenotype;
-import org.antigen.phenotype.GeometricPhenotype3D;
+import org.antigen.phenotype.Coordinates;
 import org.antigen.phenotype.GeometricSeqPhenotype;
+import org.antigen.phenotype.Mutation;
 import org.antigen.phenotype.Phenotype;
 
 public class VirusTree {
@@ -18,6 +20,15 @@ public class VirusTree {
   private static Virus root = Parameters.urVirus;
   private static List<Virus> tips = new ArrayList<>();
 
+  // sampled tips are held in a fixed size reservoir per deme until the tree is built
+  // so that memory is bounded by tipSamplesPerDeme rather than the length of the run
+  private static Virus[][] reservoirs = null; // reservoirs[d] holds up to tipSamplesPerDeme tips
+  private static int[] reservoirSizes = null; // tips currently held for each deme
+  private static long[] offered = null; // tips sampled so far for each deme
+  private static boolean tipsFilled = false; // whether tips holds the reservoir contents
+  private static TipIndex tipIndex = null; // index over tips, rebuilt after tips change
+  private static TreeIndex treeIndex = null; // index over the tree, rebuilt after it changes
+
   public static double xMin;
   public static double xMax;
   public static double yMin;
@@ -25,29 +36,128 @@ public class VirusTree {
   public static double zMin;
   public static double zMax;
 
-  static final Comparator<Virus> descendantOrder =
-      (v1, v2) -> {
-        Integer descendantsV1 = getNumberOfDescendants(v1);
-        Integer descendantsV2 = getNumberOfDescendants(v2);
-        return descendantsV1.compareTo(descendantsV2);
-      };
-
   // file name stems.
   public static String filenameStem = Parameters.outPath + Parameters.outPrefix;
 
+  // samples are appended to a buffer owned by the sampling thread, and only moved into the
+  // reservoirs by flush(), which must not run while any thread is sampling
+  private static final ConcurrentLinkedQueue<SampleBuffer> sampleBuffers =
+      new ConcurrentLinkedQueue<>();
+  private static final ThreadLocal<SampleBuffer> sampleBuffer =
+      ThreadLocal.withInitial(
+          () -> {
+            SampleBuffer buffer = new SampleBuffer(Thread.currentThread());
+            sampleBuffers.add(buffer);
+            return buffer;
+          });
+
+  // sampled viruses of one thread, dropped from sampleBuffers once the thread has ended
+  private static class SampleBuffer {
+    private final Thread owner;
+    private final List<Virus> samples = new ArrayList<>();
+
+    SampleBuffer(Thread owner) {
+      this.owner = owner;
+    }
+  }
+
   // static methods
+  // safe to call from several threads at once, no locking
   public static void add(Virus v) {
-    tips.add(v);
+    sampleBuffer.get().samples.add(v);
+  }
+
+  // move buffered samples into the reservoirs in (deme, birth, creation) order, so the result
+  // does not depend on which thread sampled what
+  public static void flush() {
+    List<Virus> samples = new ArrayList<>();
+    for (Iterator<SampleBuffer> it = sampleBuffers.iterator(); it.hasNext(); ) {
+      SampleBuffer buffer = it.next();
+      samples.addAll(buffer.samples);
+      buffer.samples.clear();
+      if (!buffer.owner.isAlive()) {
+        it.remove();
+      }
+    }
+    if (samples.isEmpty()) {
+      return;
+    }
+    samples.sort(
+        Comparator.comparingInt(Virus::getDeme)
+            .thenComparingDouble(Virus::getBirth)
+            .thenComparingLong(Virus::getSerial));
+    for (Virus v : samples) {
+      offer(v);
+    }
+    tipsFilled = false;
+  }
+
+  // keeps a uniform random sample of tipSamplesPerDeme tips for each deme (reservoir sampling),
+  // a tip that is dropped no longer holds on to its ancestry
+  private static void offer(Virus v) {
+    if (reservoirs == null) {
+      reservoirs = new Virus[Parameters.demeCount][Parameters.tipSamplesPerDeme];
+      reservoirSizes = new int[Parameters.demeCount];
+      offered = new long[Parameters.demeCount];
+    }
+    int d = v.getDeme();
+    offered[d]++;
+    if (reservoirSizes[d] < reservoirs[d].length) {
+      reservoirs[d][reservoirSizes[d]] = v;
+      reservoirSizes[d]++;
+    } else {
+      long j = (long) (Random.nextDouble() * offered[d]);
+      if (j < reservoirs[d].length) {
+        reservoirs[d][(int) j] = v;
+      }
+    }
   }
 
   public static void clear() {
+    for (SampleBuffer buffer : sampleBuffers) {
+      buffer.samples.clear();
+    }
     tips.clear();
+    tipIndex = null;
+    treeIndex = null;
+    reservoirs = null;
+    reservoirSizes = null;
+    offered = null;
+    tipsFilled = false;
   }
 
   public static List<Virus> getTips() {
+    flush();
+    if (!tipsFilled) {
+      fillTips();
+    }
     return tips;
   }
 
+  // copy reservoirs to tips, grouped by deme and ordered by birth then creation within each deme
+  private static void fillTips() {
+    flush();
+    tips = new ArrayList<>();
+    if (reservoirs != null) {
+      for (int d = 0; d < reservoirs.length; d++) {
+        List<Virus> demeTips = Arrays.asList(Arrays.copyOf(reservoirs[d], reservoirSizes[d]));
+        demeTips.sort(
+            Comparator.comparingDouble(Virus::getBirth).thenComparingLong(Virus::getSerial));
+        tips.addAll(demeTips);
+      }
+    }
+    tipsFilled = true;
+    tipIndex = null;
+  }
+
+  // index over the current tips, built on first use after tips change
+  private static TipIndex getTipIndex() {
+    if (tipIndex == null) {
+      tipIndex = new TipIndex(getTips());
+    }
+    return tipIndex;
+  }
+
   public static Virus getRoot() {
     return root;
   }
@@ -64,37 +174,16 @@ public class VirusTree {
   // reroot tree at TMRCA rather than urVirus
   public static void reroot() {
     root = getTMRCA();
+    treeIndex = null;
   }
 
   // return a random tip that lies between year from and year to
   public static Virus getRandomTipFromTo(double from, double to) {
-
-    // fill temporary list
-    List<Virus> select = new ArrayList<>();
-    for (Virus v : tips) {
-      double x = v.getBirth();
-      if (x >= from && x < to) {
-        select.add(v);
-      }
-    }
-
-    // pull random virus from this list
-    Virus rV = null;
-    if (select.size() > 0) {
-      int index = Random.nextInt(0, select.size() - 1);
-      rV = select.get(index);
-    }
-    return rV;
+    return getTipIndex().getRandomTipFromTo(from, to);
   }
 
   public static int getDemeCount(int d) {
-    int count = 0;
-    for (Virus v : tips) {
-      if (v.getDeme() == d) {
-        count++;
-      }
-    }
-    return count;
+    return getTipIndex().getDemeCount(d);
   }
 
   // work backwards for each sample filling the children lists
@@ -109,6 +198,7 @@ public class VirusTree {
         parent = child.getParent();
       }
     }
+    treeIndex = null;
   }
 
   public static void dropTips() {
@@ -120,6 +210,7 @@ public class VirusTree {
       }
     }
     tips = reducedTips;
+    tipIndex = null;
   }
 
   // marking to by time, not proportional to prevalence
@@ -136,8 +227,9 @@ public class VirusTree {
 
     for (double i = 0; i < Parameters.getDate(); i += 0.1) {
       Virus v = getRandomTipFromTo(i, i + 0.1);
+      // ancestors of an already marked virus are marked, so the walk can stop there
       if (v != null) {
-        while (v.getParent() != null) {
+        while (v.getParent() != null && !v.isMarked()) {
           v.mark();
           v = v.getParent();
         }
@@ -145,19 +237,21 @@ public class VirusTree {
     }
   }
 
-  // prune tips
+  // prune tips to at most tipSamplesPerDeme in each deme
+  // the reservoirs already hold a uniform sample of this size, so this only collects them
   public static void pruneTips() {
+    fillTips();
+    reservoirs = null;
+    reservoirSizes = null;
+    offered = null;
+  }
 
-    List<Virus> reducedTips = new ArrayList<>();
-    for (int d = 0; d < Parameters.demeCount; d++) {
-      double keepProportion = (double) Parameters.tipSamplesPerDeme / (double) getDemeCount(d);
-      for (Virus v : tips) {
-        if (Random.nextBoolean(keepProportion) && v.getDeme() == d) {
-          reducedTips.add(v);
-        }
-      }
+  // index over the tree below root, built on first use after the tree changes
+  private static TreeIndex getTreeIndex() {
+    if (treeIndex == null) {
+      treeIndex = new TreeIndex(root);
     }
-    tips = reducedTips;
+    return treeIndex;
   }
 
   // returns virus v and all its descendents via a depth-first traversal
@@ -168,18 +262,27 @@ public class VirusTree {
     return vNodes;
   }
 
+  // the full tree comes from the cached index and must not be modified
   public static List<Virus> postOrderNodes() {
-    return postOrderNodes(root);
+    return getTreeIndex().getNodes();
   }
 
   // returns virus v and all its descendents via a depth-first traversal
   public static List<Virus> postOrderChildren(List<Virus> vNodes) {
 
-    Virus last = vNodes.get(vNodes.size() - 1);
-
-    for (Virus child : last.getChildren()) {
-      vNodes.add(child);
-      postOrderChildren(vNodes);
+    Deque<Virus> stack = new ArrayDeque<>();
+    stack.push(vNodes.get(vNodes.size() - 1));
+    boolean first = true;
+    while (!stack.isEmpty()) {
+      Virus v = stack.pop();
+      if (!first) {
+        vNodes.add(v);
+      }
+      first = false;
+      List<Virus> children = v.getChildren();
+      for (int k = children.size() - 1; k >= 0; k--) {
+        stack.push(children.get(k));
+      }
     }
 
     return vNodes;
@@ -188,54 +291,68 @@ public class VirusTree {
   // Count total descendents of a Virus, working through its children and its
   // children's children
   public static int getNumberOfDescendants(Virus v) {
-
-    int numberOfDescendants = v.getNumberOfChildren();
-
-    for (Virus child : v.getChildren()) {
-      numberOfDescendants += getNumberOfDescendants(child);
-    }
-
-    return numberOfDescendants;
+    return postOrderNodes(v).size() - 1;
   }
 
   public static int getNumberOfDescendants() {
-    return getNumberOfDescendants(root);
+    return getTreeIndex().getSize(0) - 1;
   }
 
   // sorts children lists so that first member is child with more descendents than
   // second member
   public static void sortChildrenByDescendants(Virus v) {
-
-    List<Virus> children = v.getChildren();
-    children.sort(descendantOrder);
-
-    for (Virus child : children) {
-      sortChildrenByDescendants(child);
-    }
+    sortChildrenByDescendants(new TreeIndex(v));
+    treeIndex = null;
   }
 
   public static void sortChildrenByDescendants() {
-    sortChildrenByDescendants(root);
+    sortChildrenByDescendants(getTreeIndex());
+    treeIndex = null;
+  }
+
+  // stable insertion sort of each children list by subtree size, children lists are short
+  private static void sortChildrenByDescendants(TreeIndex index) {
+    int[] order = new int[0];
+    for (int i = 0; i < index.getNodeCount(); i++) {
+      int count = 0;
+      for (int c = index.getFirstChild(i); c >= 0; c = index.getNextSibling(c)) {
+        if (count == order.length) {
+          order = Arrays.copyOf(order, 2 * count + 2);
+        }
+        int k = count;
+        while (k > 0 && index.getSize(order[k - 1]) > index.getSize(c)) {
+          order[k] = order[k - 1];
+          k--;
+        }
+        order[k] = c;
+        count++;
+      }
+      List<Virus> children = index.getNode(i).getChildren();
+      for (int k = 0; k < count; k++) {
+        children.set(k, index.getNode(order[k]));
+      }
+    }
   }
 
   // sets Virus layout based on a postorder traversal
   public static void setLayoutByDescendants() {
 
-    List<Virus> vNodes = postOrderNodes();
+    TreeIndex index = getTreeIndex();
+    int n = index.getNodeCount();
 
     // set layout of tips based on traversal
     double y = 0;
-    for (Virus v : vNodes) {
-      // if (tips.contains(v)) {
+    for (int i = 0; i < n; i++) {
+      Virus v = index.getNode(i);
       if (v.isTip()) {
         v.setLayout(y);
         y++;
       }
     }
 
-    // update layout of internal nodes
-    Collections.reverse(vNodes);
-    for (Virus v : vNodes) {
+    // update layout of internal nodes, children before parents
+    for (int i = n - 1; i >= 0; i--) {
+      Virus v = index.getNode(i);
       if (v.getNumberOfChildren() > 0) {
         double mean = 0;
         for (Virus child : v.getChildren()) {
@@ -297,123 +414,33 @@ public class VirusTree {
         vp = collapse(vp);
       }
     }
+    treeIndex = null;
   }
 
-  // rotate the 2d euclidean space using PCA, returning an x-axis with maximum
+  // rotate the euclidean space using PCA, returning an x-axis with maximum
   // variance
   public static void rotate() {
 
-    if (Parameters.phenotypeSpace.equals("geometric")) {
-
-      // load a 2d array with phenotypes
-
-      List<Virus> virusList = postOrderNodes();
-      int n = virusList.size();
-      int m = 2;
-
-      double[][] input = new double[n][m];
-
-      for (int i = 0; i < n; i++) {
-        Virus v = virusList.get(i);
-        GeometricPhenotype p = (GeometricPhenotype) v.getPhenotype();
-        double x = p.getTraitA();
-        double y = p.getTraitB();
-        input[i][0] = x;
-        input[i][1] = y;
-      }
-
-      // project this array
-
-      double[][] projected = SimplePCA.project(input);
-
-      // reset phenotypes based on projection
-
-      for (int i = 0; i < n; i++) {
-        Virus v = virusList.get(i);
-        GeometricPhenotype p = (GeometricPhenotype) v.getPhenotype();
-        double x = projected[i][0];
-        double y = projected[i][1];
-        p.setTraitA(x);
-        p.setTraitB(y);
-      }
-    }
-
-    if (Parameters.phenotypeSpace.equals("geometricSeq")) {
-
-      // load a 2d array with phenotypes
-
-      List<Virus> virusList = postOrderNodes();
-      int n = virusList.size();
-      int m = 2;
-
-      double[][] input = new double[n][m];
-
-      for (int i = 0; i < n; i++) {
-        Virus v = virusList.get(i);
-        GeometricSeqPhenotype p = (GeometricSeqPhenotype) v.getPhenotype();
-        double x = p.getTraitA();
-        double y = p.getTraitB();
-        input[i][0] = x;
-        input[i][1] = y;
-      }
-
-      // project this array
-
-      double[][] projected = SimplePCA.project(input);
-
-      // reset phenotypes based on projection
-
-      for (int i = 0; i < n; i++) {
-        Virus v = virusList.get(i);
-        GeometricSeqPhenotype p = (GeometricSeqPhenotype) v.getPhenotype();
-        double x = projected[i][0];
-        double y = projected[i][1];
-        p.setTraitA(x);
-        p.setTraitB(y);
-      }
+    List<Virus> virusList = postOrderNodes();
+    if (!(virusList.get(0).getPhenotype() instanceof Coordinates)) {
+      return;
     }
 
-    if (Parameters.phenotypeSpace.equals("geometric3d")) {
-
-      // load a 2d array with phenotypes
-
-      List<Virus> virusList = postOrderNodes();
-      int n = virusList.size();
-      int m = 3;
-
-      double[][] input = new double[n][m];
-
-      for (int i = 0; i < n; i++) {
-        Virus v = virusList.get(i);
-        GeometricPhenotype3D p = (GeometricPhenotype3D) v.getPhenotype();
-        double x = p.getTraitA();
-        double y = p.getTraitB();
-        double z = p.getTraitC();
-        input[i][0] = x;
-        input[i][1] = y;
-        input[i][2] = z;
-      }
-
-      // project this array
-
-      double[][] projected = SimplePCA.project3D(input);
-
-      // reset phenotypes based on projection
+    // phenotypes are viewed through the node list rather than copied
+    List<Coordinates> points =
+        new AbstractList<Coordinates>() {
+          public Coordinates get(int i) {
+            return (Coordinates) virusList.get(i).getPhenotype();
+          }
 
-      for (int i = 0; i < n; i++) {
-        Virus v = virusList.get(i);
-        GeometricPhenotype3D p = (GeometricPhenotype3D) v.getPhenotype();
-        double x = projected[i][0];
-        double y = projected[i][1];
-        double z = projected[i][2];
-        p.setTraitA(x);
-        p.setTraitB(y);
-        p.setTraitC(z);
-      }
-    }
+          public int size() {
+            return virusList.size();
+          }
+        };
+    SimplePCA.projectInPlace(points);
   }
 
-  // flips the 2d euclidean space so that first sample is always to the left of
+  // flips the euclidean space so that first sample is always to the left of
   // the last sample
   public static void flip() {
     List<Virus> virusList = postOrderNodes();
@@ -437,96 +464,28 @@ public class VirusTree {
       }
     }
 
-    if (Parameters.phenotypeSpace.equals("geometric")) {
-
-      // is the x-value of first virus greater than the x-value of last virus?
-      // if so, flip
-
-      GeometricPhenotype p = (GeometricPhenotype) firstVirus.getPhenotype();
-      double firstX = p.getTraitA();
-      p = (GeometricPhenotype) lastVirus.getPhenotype();
-      double lastX = p.getTraitA();
-
-      if (firstX > lastX) {
-
-        // I think that postOrderNodes() has replicates in it, need to go through some
-        // hoops because of this
-        double[] input = new double[n];
-
-        for (int i = 0; i < n; i++) {
-          Virus v = virusList.get(i);
-          p = (GeometricPhenotype) v.getPhenotype();
-          input[i] = p.getTraitA();
-        }
-
-        for (int i = 0; i < n; i++) {
-          Virus v = virusList.get(i);
-          p = (GeometricPhenotype) v.getPhenotype();
-          double x = -1 * input[i];
-          p.setTraitA(x);
-        }
-      }
+    if (!(firstVirus.getPhenotype() instanceof Coordinates)) {
+      return;
     }
 
-    if (Parameters.phenotypeSpace.equals("geometricSeq")) {
+    // is the x-value of first virus greater than the x-value of last virus?
+    // if so, flip
 
-      // is the x-value of first virus greater than the x-value of last virus?
-      // if so, flip
+    double firstX = ((Coordinates) firstVirus.getPhenotype()).getTrait(0);
+    double lastX = ((Coordinates) lastVirus.getPhenotype()).getTrait(0);
 
-      GeometricSeqPhenotype p = (GeometricSeqPhenotype) firstVirus.getPhenotype();
-      double firstX = p.getTraitA();
-      p = (GeometricSeqPhenotype) lastVirus.getPhenotype();
-      double lastX = p.getTraitA();
+    if (firstX > lastX) {
 
-      if (firstX > lastX) {
-
-        // I think that postOrderNodes() has replicates in it, need to go through some
-        // hoops because of this
-        double[] input = new double[n];
-
-        for (int i = 0; i < n; i++) {
-          Virus v = virusList.get(i);
-          p = (GeometricSeqPhenotype) v.getPhenotype();
-          input[i] = p.getTraitA();
-        }
+      // I think that postOrderNodes() has replicates in it, need to go through some
+      // hoops because of this
+      double[] input = new double[n];
 
-        for (int i = 0; i < n; i++) {
-          Virus v = virusList.get(i);
-          p = (GeometricSeqPhenotype) v.getPhenotype();
-          double x = -1 * input[i];
-          p.setTraitA(x);
-        }
+      for (int i = 0; i < n; i++) {
+        input[i] = ((Coordinates) virusList.get(i).getPhenotype()).getTrait(0);
       }
-    }
-
-    if (Parameters.phenotypeSpace.equals("geometric3d")) {
-
-      // is the x-value of first virus greater than the x-value of last virus?
-      // if so, flip
-
-      GeometricPhenotype3D p = (GeometricPhenotype3D) firstVirus.getPhenotype();
-      double firstX = p.getTraitA();
-      p = (GeometricPhenotype3D) lastVirus.getPhenotype();
-      double lastX = p.getTraitA();
 
-      if (firstX > lastX) {
-
-        // I think that postOrderNodes() has replicates in it, need to go through some
-        // hoops because of this
-        double[] input = new double[n];
-
-        for (int i = 0; i < n; i++) {
-          Virus v = virusList.get(i);
-          p = (GeometricPhenotype3D) v.getPhenotype();
-          input[i] = p.getTraitA();
-        }
-
-        for (int i = 0; i < n; i++) {
-          Virus v = virusList.get(i);
-          p = (GeometricPhenotype3D) v.getPhenotype();
-          double x = -1 * input[i];
-          p.setTraitA(x);
-        }
+      for (int i = 0; i < n; i++) {
+        ((Coordinates) virusList.get(i).getPhenotype()).setTrait(0, -1 * input[i]);
       }
     }
   }
@@ -542,27 +501,20 @@ public class VirusTree {
     zMax = 0.0;
 
     for (Virus v : postOrderNodes()) {
-      Phenotype p = v.getPhenotype();
-      double x = 0.0;
-      double y = 0.0;
-      switch (Parameters.phenotypeSpace) {
-        case "geometric":
-          x = ((GeometricPhenotype) p).getTraitA();
-          y = ((GeometricPhenotype) p).getTraitB();
-          break;
-        case "geometricSeq":
-          x = ((GeometricSeqPhenotype) p).getTraitA();
-          y = ((GeometricSeqPhenotype) p).getTraitB();
-          break;
-        case "geometric3d":
-          double z = ((GeometricPhenotype3D) p).getTraitC();
-          if (zMin > z) {
-            zMin = z;
-          }
-          if (zMax < z) {
-            zMax = z;
-          }
-          break;
+      if (!(v.getPhenotype() instanceof Coordinates)) {
+        continue;
+      }
+      Coordinates p = (Coordinates) v.getPhenotype();
+      double x = p.getTrait(0);
+      double y = p.getDimensions() > 1 ? p.getTrait(1) : 0.0;
+      if (p.getDimensions() > 2) {
+        double z = p.getTrait(2);
+        if (zMin > z) {
+          zMin = z;
+        }
+        if (zMax < z) {
+          zMax = z;
+        }
       }
 
       updateRangeHelper(x, y);
@@ -594,10 +546,7 @@ public class VirusTree {
   public static void printRange() {
 
     try {
-      File rangeFile = new File(filenameStem + ".range");
-      rangeFile.delete();
-      rangeFile.createNewFile();
-      PrintStream rangeStream = new PrintStream(rangeFile);
+      PrintStream rangeStream = OutputCodecs.open(filenameStem + ".range");
       rangeStream.printf("%.4f,%.4f,%.4f,%.4f,%.4f,%.4f\n", xMin, xMax, yMin, yMax, zMin, zMax);
       rangeStream.close();
     } catch (IOException ex) {
@@ -609,10 +558,7 @@ public class VirusTree {
   public static void printTips() {
 
     try {
-      File tipFile = new File(filenameStem + ".tips");
-      tipFile.delete();
-      tipFile.createNewFile();
-      PrintStream tipStream = new PrintStream(tipFile);
+      PrintStream tipStream = OutputCodecs.open(filenameStem + ".tips");
       if (Parameters.phenotypeSpace.equals("geometricSeq")) {
         tipStream.printf(
             "\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\",\"%s\"\n",
@@ -711,10 +657,7 @@ public class VirusTree {
   public static void printBranches() {
 
     try {
-      File branchFile = new File(filenameStem + ".branches");
-      branchFile.delete();
-      branchFile.createNewFile();
-      PrintStream branchStream = new PrintStream(branchFile);
+      PrintStream branchStream = OutputCodecs.open(filenameStem + ".branches");
       for (Virus v : postOrderNodes()) {
         if (v.getParent() != null) {
           Virus vp = v.getParent();
@@ -750,13 +693,63 @@ public class VirusTree {
     }
   }
 
+  // substitutions along each branch, oldest first, from the records kept by each phenotype
+  public static void printMutations() {
+
+    try {
+      PrintStream mutationStream = OutputCodecs.open(filenameStem + ".mutations");
+      mutationStream.print(
+          "\"name\",\"parent\",\"site\",\"aminoAcidSite\",\"wildTypeNucleotide\","
+              + "\"mutantNucleotide\",\"wildTypeAminoAcid\",\"mutantAminoAcid\","
+              + "\"epitopeClass\",\"ag1\",\"ag2\"\n");
+      List<Mutation> branch = new ArrayList<>();
+      for (Virus v : postOrderNodes()) {
+        Virus vp = v.getParent();
+        if (vp == null) {
+          continue;
+        }
+        Mutation m = ((GeometricSeqPhenotype) v.getPhenotype()).getLastMutation();
+        int parentCount =
+            Mutation.count(((GeometricSeqPhenotype) vp.getPhenotype()).getLastMutation());
+        branch.clear();
+        while (m != null && m.getCount() > parentCount) {
+          branch.add(m);
+          m = m.getPrevious();
+        }
+        for (int k = branch.size() - 1; k >= 0; k--) {
+          m = branch.get(k);
+          mutationStream.printf(
+              "\"%s\",\"%s\",%d,%d,%c,%c,%c,%c,%s,%.4f,%.4f\n",
+              v,
+              vp,
+              m.getSite() + 1,
+              m.getSite() / 3 + 1,
+              m.getWildTypeNucleotide(),
+              m.getMutantNucleotide(),
+              m.getWildTypeAminoAcid(),
+              m.getMutantAminoAcid(),
+              m.getEpitopeClassName(),
+              m.getVectorA(),
+              m.getVectorB());
+        }
+      }
+      mutationStream.close();
+    } catch (IOException ex) {
+      System.out.println("Could not write to file");
+      System.exit(0);
+    }
+  }
+
   public static void printFASTA() {
 
+    if (Parameters.FASTA_DELTA.equals(Parameters.fastaFormat)
+        && Parameters.phenotypeSpace.equals("geometricSeq")) {
+      printDeltaFASTA();
+      return;
+    }
+
     try {
-      File fastaFile = new File(filenameStem + ".fasta");
-      fastaFile.delete();
-      fastaFile.createNewFile();
-      PrintStream fastaStream = new PrintStream(fastaFile);
+      PrintStream fastaStream = OutputCodecs.open(filenameStem + ".fasta");
       for (int i = 0; i < tips.size(); i++) {
         Virus v = tips.get(i);
         printSequence(v, fastaStream, i);
@@ -771,17 +764,55 @@ public class VirusTree {
   private static void printSequence(Virus v, PrintStream fastaStream, int fastaSequenceNum) {
     fastaStream.printf(">seq%d|%f|%f\n", fastaSequenceNum, v.getBirth(), v.getFitness());
 
-    String virusPhenotype = v.getPhenotype().toString();
-    String sequence = virusPhenotype.split(",")[0];
-    String[] sequenceSplit = sequence.split("(?<=\\G.{60})");
-    fastaStream.printf("%s\n", sequence);
-    // for (int i = 0; i < sequenceSplit.length; i++) {
-    // 	fastaStream.printf("%s\n", sequenceSplit[i]);
-    // }
+    // sequences are written directly rather than cut from the formatted phenotype
+    Phenotype p = v.getPhenotype();
+    String sequence =
+        p instanceof GeometricSeqPhenotype
+            ? ((GeometricSeqPhenotype) p).getSequence()
+            : p.toString().split(",")[0];
+    fastaStream.print(sequence);
+    fastaStream.print('\n');
+  }
+
+  // tips in depth-first order, each written as its differences from the tip before
+  public static void printDeltaFASTA() {
+
+    // a virus can be sampled more than once, and is written under each of its numbers
+    Map<Virus, List<Integer>> tipNumbers = new IdentityHashMap<>();
+    for (int i = 0; i < tips.size(); i++) {
+      tipNumbers.computeIfAbsent(tips.get(i), v -> new ArrayList<>()).add(i);
+    }
+    int[] order = new int[tips.size()];
+    boolean[] ordered = new boolean[tips.size()];
+    int count = 0;
+    for (Virus v : postOrderNodes()) {
+      List<Integer> numbers = tipNumbers.get(v);
+      if (numbers != null) {
+        for (int i : numbers) {
+          order[count++] = i;
+          ordered[i] = true;
+        }
+      }
+    }
+    // tips outside the tree below root, if any, follow in sampling order
+    for (int i = 0; i < tips.size(); i++) {
+      if (!ordered[i]) {
+        order[count++] = i;
+      }
+    }
+
+    try {
+      PrintStream deltaStream = OutputCodecs.open(filenameStem + DeltaFasta.EXTENSION);
+      DeltaFasta.write(deltaStream, Parameters.startingSequence.toCharArray(), tips, order);
+      deltaStream.close();
+    } catch (IOException ex) {
+      System.out.println("Could not write to file");
+      System.exit(0);
+    }
   }
 
   // assess node in building Newick string
-  public static Virus assessNode(Virus v, List<Virus> visited, PrintStream treeStream) {
+  public static Virus assessNode(Virus v, Set<Virus> visited, PrintStream treeStream) {
 
     Virus returnVirus = null;
     boolean printHeight = false;
@@ -846,12 +877,9 @@ public class VirusTree {
   public static void printNewick() {
 
     try {
-      File treeFile = new File(filenameStem + ".trees");
-      treeFile.delete();
-      treeFile.createNewFile();
-      PrintStream treeStream = new PrintStream(treeFile);
+      PrintStream treeStream = OutputCodecs.open(filenameStem + ".trees");
 
-      List<Virus> visited = new ArrayList<>();
+      Set<Virus> visited = new HashSet<>();
 
       // start at root
       Virus v = root;
@@ -871,77 +899,52 @@ public class VirusTree {
     }
   }
 
+  // MK statistics over the whole tree, in a single pass over the cached node list
+  public static MKStatistics getMKStatistics() {
+    return MKStatistics.of(postOrderNodes(), Parameters.getDate() - Parameters.yearsFromMK);
+  }
+
   public static int sideBranchMutations() {
-    int count = 0;
-    for (Virus v : postOrderNodes()) {
-      if (v.getParent() != null && v.getBirth() < Parameters.getDate() - Parameters.yearsFromMK) {
-        Virus vp = v.getParent();
-        if (!v.isTrunk() && !vp.isTrunk() && v.getPhenotype() != vp.getPhenotype()) {
-          count++;
-        }
-      }
-    }
-    return count;
+    return getMKStatistics().getSideBranchMutations();
   }
 
   public static double sideBranchOpportunity() {
-    double time = 0;
-    for (Virus v : postOrderNodes()) {
-      if (v.getParent() != null && v.getBirth() < Parameters.getDate() - Parameters.yearsFromMK) {
-        Virus vp = v.getParent();
-        if (!v.isTrunk() && !vp.isTrunk()) {
-          time += v.getBirth() - vp.getBirth();
-        }
-      }
-    }
-    return time;
+    return getMKStatistics().getSideBranchOpportunity();
   }
 
   public static int trunkMutations() {
-    int count = 0;
-    for (Virus v : postOrderNodes()) {
-      if (v.getParent() != null && v.getBirth() < Parameters.getDate() - Parameters.yearsFromMK) {
-        Virus vp = v.getParent();
-        if (v.isTrunk() && vp.isTrunk() && v.getPhenotype() != vp.getPhenotype()) {
-          count++;
-        }
-      }
-    }
-    return count;
+    return getMKStatistics().getTrunkMutations();
   }
 
   public static double trunkOpportunity() {
-    double time = 0;
-    for (Virus v : postOrderNodes()) {
-      if (v.getParent() != null && v.getBirth() < Parameters.getDate() - Parameters.yearsFromMK) {
-        Virus vp = v.getParent();
-        if (v.isTrunk() && vp.isTrunk()) {
-          time += v.getBirth() - vp.getBirth();
-        }
-      }
-    }
-    return time;
+    return getMKStatistics().getTrunkOpportunity();
   }
 
   public static void printMKSummary() {
 
     try {
-      PrintStream summaryStream =
-          new PrintStream(new FileOutputStream(filenameStem + ".summary", true)); // append
-      double sideBranchMut = sideBranchMutations();
-      double sideBranchOpp = sideBranchOpportunity();
-      double sideBranchRate = sideBranchMut / sideBranchOpp;
-      double trunkMut = trunkMutations();
-      double trunkOpp = trunkOpportunity();
-      double trunkRate = trunkMut / trunkOpp;
-      double mkRatio = trunkRate / sideBranchRate;
-      summaryStream.printf("sideBranchRate\t%.4f\n", sideBranchRate);
-      summaryStream.printf("trunkRate\t%.4f\n", trunkRate);
-      summaryStream.printf("mkRatio\t%.4f\n", mkRatio);
+      PrintStream summaryStream = OutputCodecs.append(filenameStem + ".summary");
+      MKStatistics mk = getMKStatistics();
+      summaryStream.printf("sideBranchRate\t%.4f\n", mk.getSideBranchRate());
+      summaryStream.printf("trunkRate\t%.4f\n", mk.getTrunkRate());
+      summaryStream.printf("mkRatio\t%.4f\n", mk.getMKRatio());
       summaryStream.close();
     } catch (IOException ex) {
       System.out.println("Could not write to file");
       System.exit(0);
     }
   }
+
+  // MK counts and ratio for each year of virus birth
+  public static void printMKByYear() {
+
+    try {
+      PrintStream mkStream = OutputCodecs.open(filenameStem + ".mk");
+      getMKStatistics().printByYear(mkStream);
+      mkStream.close();
+    } catch (IOException ex) {
+      System.out.println("Could not write to file");
+      System.exit(0);
+    }
+  }
 }
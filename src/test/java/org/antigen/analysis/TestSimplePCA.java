@@ -0,0 +1,134 @@
+package org.antigen.analysis;
+
+import static org.junit.Assert.*;
+
+import cern.colt.matrix.*;
+import cern.colt.matrix.impl.*;
+import cern.colt.matrix.linalg.*;
+import java.util.*;
+import org.antigen.phenotype.Coordinates;
+import org.junit.Test;
+
+/** Test class for SimplePCA.java */
+public class TestSimplePCA {
+
+  // point that counts how often it is moved
+  private static class Point implements Coordinates {
+
+    private final double[] traits;
+    private int writes = 0;
+
+    Point(double... traits) {
+      this.traits = traits;
+    }
+
+    public int getDimensions() {
+      return traits.length;
+    }
+
+    public double getTrait(int i) {
+      return traits[i];
+    }
+
+    public void setTrait(int i, double t) {
+      traits[i] = t;
+      writes++;
+    }
+  }
+
+  // random points, with every fifth entry repeating an earlier instance
+  private static List<Point> randomPoints(java.util.Random random, int n, int m) {
+    List<Point> points = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      if (i > 0 && i % 5 == 0) {
+        points.add(points.get(random.nextInt(i)));
+      } else {
+        double[] traits = new double[m];
+        for (int j = 0; j < m; j++) {
+          traits[j] = random.nextGaussian() * (j + 1) + 3.0 * j;
+        }
+        points.add(new Point(traits));
+      }
+    }
+    return points;
+  }
+
+  private static double[][] toArray(List<Point> points) {
+    double[][] input = new double[points.size()][];
+    for (int i = 0; i < points.size(); i++) {
+      input[i] = points.get(i).traits.clone();
+    }
+    return input;
+  }
+
+  // the projection SimplePCA.project and project3D made before projectInPlace replaced them
+  private static double[][] referenceProject(double[][] input) {
+    cern.jet.math.Functions F = cern.jet.math.Functions.functions;
+    Algebra alg = new Algebra();
+    DoubleMatrix2D values = new DenseDoubleMatrix2D(input);
+    int n = values.rows();
+    int m = values.columns();
+    double[] means = new double[m];
+    for (int j = 0; j < m; j++) {
+      means[j] = (values.viewColumn(j)).zSum() / (double) n;
+    }
+    DoubleMatrix2D centered = new DenseDoubleMatrix2D(values.toArray());
+    for (int j = 0; j < m; j++) {
+      (centered.viewColumn(j)).assign(F.minus(means[j]));
+    }
+    DoubleMatrix2D cov = alg.mult(centered.viewDice(), centered);
+    cov.assign(F.mult(1 / ((double) n - 1)));
+    EigenvalueDecomposition eigenSystem = new EigenvalueDecomposition(cov);
+    DoubleMatrix1D eigenValues = eigenSystem.getRealEigenvalues();
+    DoubleMatrix2D eigenVectors = eigenSystem.getV();
+    int[] indices = {
+      SimplePCA.indexOfMaximum(eigenValues),
+      SimplePCA.indexOfNextToMaximum(eigenValues),
+      SimplePCA.indexOfThirdToMaximum(eigenValues)
+    };
+    DoubleMatrix2D featureVectors = new DenseDoubleMatrix2D(m, m);
+    for (int j = 0; j < m; j++) {
+      (featureVectors.viewColumn(j)).assign(eigenVectors.viewColumn(indices[j]));
+    }
+    return (alg.mult(featureVectors.viewDice(), centered.viewDice())).viewDice().toArray();
+  }
+
+  /** Projection matches the old two and three dimensional projections. */
+  @Test
+  public void testMatchesReferenceProjection() {
+    java.util.Random random = new java.util.Random(11);
+    for (int m = 2; m <= 3; m++) {
+      List<Point> points = randomPoints(random, 2000, m);
+      double[][] expected = referenceProject(toArray(points));
+      SimplePCA.projectInPlace(points);
+      for (int i = 0; i < points.size(); i++) {
+        for (int j = 0; j < m; j++) {
+          assertEquals(expected[i][j], points.get(i).getTrait(j), 1e-12);
+        }
+      }
+    }
+  }
+
+  /** A point listed several times is weighted each time but moved only once. */
+  @Test
+  public void testSharedPointsProjectedOnce() {
+    java.util.Random random = new java.util.Random(13);
+    List<Point> points = randomPoints(random, 500, 3);
+    SimplePCA.projectInPlace(points);
+    Set<Point> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+    distinct.addAll(points);
+    assertTrue(distinct.size() < points.size());
+    for (Point p : distinct) {
+      assertEquals(p.getDimensions(), p.writes);
+    }
+
+    // the projection is centered over all entries, repeats included
+    for (int j = 0; j < 3; j++) {
+      double mean = 0.0;
+      for (Point p : points) {
+        mean += p.getTrait(j);
+      }
+      assertEquals(0.0, mean / points.size(), 1e-9);
+    }
+  }
+}
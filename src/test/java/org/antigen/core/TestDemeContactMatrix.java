@@ -0,0 +1,57 @@
+package org.antigen.core;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Test;
+
+/** Test class for DemeContactMatrix.java */
+public class TestDemeContactMatrix {
+
+  /** Uniform matrix couples every ordered pair of distinct demes. */
+  @Test
+  public void testUniform() {
+    DemeContactMatrix matrix = DemeContactMatrix.uniform(3, 0.0005);
+    assertEquals(6, matrix.getEdgeCount());
+    for (int target = 0; target < 3; target++) {
+      assertEquals(2, matrix.getRowEnd(target) - matrix.getRowStart(target));
+      for (int e = matrix.getRowStart(target); e < matrix.getRowEnd(target); e++) {
+        assertNotEquals(target, matrix.getSource(e));
+        assertEquals(0.0005, matrix.getWeight(e), 0.0);
+      }
+    }
+  }
+
+  /** Edge list is converted to rows by target deme, dropping self edges and zero weights. */
+  @Test
+  public void testRead() throws IOException {
+    String csv = "source,target,weight\n2,1,0.5\n3,1,0.25\n1,1,0.9\n1,3,0.0\n\n1,2,0.1\n";
+    DemeContactMatrix matrix = DemeContactMatrix.read(new BufferedReader(new StringReader(csv)), 3);
+
+    assertEquals(3, matrix.getEdgeCount());
+
+    // target deme 1 receives from demes 2 and 3, in file order
+    assertEquals(0, matrix.getRowStart(0));
+    assertEquals(2, matrix.getRowEnd(0));
+    assertEquals(1, matrix.getSource(0));
+    assertEquals(0.5, matrix.getWeight(0), 0.0);
+    assertEquals(2, matrix.getSource(1));
+    assertEquals(0.25, matrix.getWeight(1), 0.0);
+
+    // target deme 2 receives from deme 1
+    assertEquals(1, matrix.getRowEnd(1) - matrix.getRowStart(1));
+    assertEquals(0, matrix.getSource(matrix.getRowStart(1)));
+
+    // target deme 3 is not coupled
+    assertEquals(matrix.getRowStart(2), matrix.getRowEnd(2));
+  }
+
+  /** Deme indices outside 1..n are rejected. */
+  @Test(expected = IOException.class)
+  public void testReadOutOfRange() throws IOException {
+    String csv = "source,target,weight\n4,1,0.5\n";
+    DemeContactMatrix.read(new BufferedReader(new StringReader(csv)), 3);
+  }
+}
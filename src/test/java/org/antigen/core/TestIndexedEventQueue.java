@@ -0,0 +1,51 @@
+package org.antigen.core;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+/** Test class for IndexedEventQueue.java */
+public class TestIndexedEventQueue {
+
+  /** The earliest channel is always at the front as times are raised and lowered. */
+  @Test
+  public void testPeekAfterUpdates() {
+    java.util.Random rand = new java.util.Random(3);
+    int n = 37;
+    IndexedEventQueue queue = new IndexedEventQueue(n);
+    double[] times = new double[n];
+    Arrays.fill(times, Double.POSITIVE_INFINITY);
+    assertEquals(Double.POSITIVE_INFINITY, queue.peekTime(), 0.0);
+
+    for (int step = 0; step < 5000; step++) {
+      int channel = rand.nextInt(n);
+      double time = rand.nextInt(10) == 0 ? Double.POSITIVE_INFINITY : rand.nextDouble();
+      queue.setTime(channel, time);
+      times[channel] = time;
+
+      double min = Double.POSITIVE_INFINITY;
+      for (double t : times) {
+        min = Math.min(min, t);
+      }
+      assertEquals(min, queue.peekTime(), 0.0);
+      assertEquals(min, times[queue.peek()], 0.0);
+      assertEquals(time, queue.getTime(channel), 0.0);
+    }
+  }
+
+  /** Clearing sends every channel to positive infinity. */
+  @Test
+  public void testClear() {
+    IndexedEventQueue queue = new IndexedEventQueue(4);
+    queue.setTime(2, 1.5);
+    queue.setTime(0, 0.5);
+    assertEquals(0, queue.peek());
+    queue.clear();
+    for (int i = 0; i < 4; i++) {
+      assertEquals(Double.POSITIVE_INFINITY, queue.getTime(i), 0.0);
+    }
+    queue.setTime(3, 2.0);
+    assertEquals(3, queue.peek());
+  }
+}
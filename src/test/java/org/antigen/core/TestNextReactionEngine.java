@@ -0,0 +1,118 @@
+package org.antigen.core;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.antigen.host.HostPopulation;
+import org.antigen.virus.VirusTree;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test class for NextReactionEngine.java, compared against tau leaping at a small deltaT */
+public class TestNextReactionEngine {
+
+  private static final int REPLICATES = 100;
+
+  @Before
+  public void setUp() {
+    Parameters.load();
+    Parameters.initialize();
+    Parameters.day = 0;
+
+    // a single closed deme without seasonality or mutation, a plain stochastic SIR
+    Parameters.demeCount = 1;
+    Parameters.demeNames = new String[] {"deme"};
+    Parameters.initialNs = new int[] {2000};
+    Parameters.hostImmunitySamplesPerDeme = new int[] {0};
+    Parameters.demeBaselines = new double[] {1.0};
+    Parameters.demeAmplitudes = new double[] {0.0};
+    Parameters.demeOffsets = new double[] {0.0};
+    Parameters.initialDeme = 1;
+    Parameters.initialI = 20;
+    Parameters.initialPrR = 0.0;
+    Parameters.beta = 0.36;
+    Parameters.nu = 0.2;
+    Parameters.birthRate = 0.0;
+    Parameters.deathRate = 0.0;
+    Parameters.transcendental = false;
+    Parameters.waning = false;
+    Parameters.muPhenotype = 0.0;
+    Parameters.tipSamplingRate = 0.0;
+  }
+
+  @After
+  public void tearDown() {
+    Parameters.load();
+    Parameters.initialize();
+    Parameters.day = 0;
+    VirusTree.clear();
+  }
+
+  // I on day 20, near the peak, and infections by day 100, the final size, for each replicate
+  private double[][] outcomes(boolean exact) {
+    double[][] outcomes = new double[2][REPLICATES];
+    for (int r = 0; r < REPLICATES; r++) {
+      Parameters.day = 0;
+      List<HostPopulation> demes = new ArrayList<>();
+      demes.add(new HostPopulation(0));
+      DemeContactMatrix contactMatrix = DemeContactMatrix.uniform(1, Parameters.betweenDemePro);
+      NextReactionEngine engine = exact ? new NextReactionEngine(demes, contactMatrix) : null;
+      int steps = (int) Math.round(100 / Parameters.deltaT);
+      for (int s = 0; s < steps; s++) {
+        if (s == (int) Math.round(20 / Parameters.deltaT)) {
+          outcomes[0][r] = demes.get(0).getI();
+        }
+        if (exact) {
+          engine.advance();
+        } else {
+          demes.get(0).stepForward();
+          demes.get(0).betweenDemeContact(demes, contactMatrix);
+          Parameters.day += Parameters.deltaT;
+        }
+      }
+      assertEquals(2000, demes.get(0).getN());
+      outcomes[1][r] = demes.get(0).getCases();
+      VirusTree.clear();
+    }
+    return outcomes;
+  }
+
+  // difference in means in units of its standard error
+  private static double zScore(double[] a, double[] b) {
+    return (mean(a) - mean(b)) / Math.sqrt(variance(a) / a.length + variance(b) / b.length);
+  }
+
+  private static double mean(double[] x) {
+    double sum = 0.0;
+    for (double v : x) {
+      sum += v;
+    }
+    return sum / x.length;
+  }
+
+  private static double variance(double[] x) {
+    double m = mean(x);
+    double sum = 0.0;
+    for (double v : x) {
+      sum += (v - m) * (v - m);
+    }
+    return sum / (x.length - 1);
+  }
+
+  /** Mean prevalence near the peak and mean final size agree with tau leaping. */
+  @Test
+  public void testAgreesWithTauLeap() {
+    Parameters.deltaT = 0.01;
+    double[][] tauLeap = outcomes(false);
+    // a long step, so that rates are kept current by the engine rather than by the step
+    Parameters.deltaT = 5.0;
+    double[][] exact = outcomes(true);
+
+    // a wrong rate or a lost rescaling shifts these by many standard errors
+    assertEquals(0.0, zScore(tauLeap[0], exact[0]), 4.0);
+    assertEquals(0.0, zScore(tauLeap[1], exact[1]), 4.0);
+    assertTrue(mean(exact[1]) > 1000);
+  }
+}
@@ -0,0 +1,117 @@
+package org.antigen.core;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.zip.GZIPInputStream;
+import org.junit.Test;
+
+/** Test class for OutputCodecs.java and ParallelGzipOutputStream.java */
+public class TestOutputCodecs {
+
+  /** Output spanning many blocks, written in uneven pieces, reads back as one gzip stream. */
+  @Test
+  public void testParallelGzipRoundTrip() throws IOException {
+    java.util.Random rand = new java.util.Random(11);
+    byte[] data = new byte[3 * ParallelGzipOutputStream.BLOCK_SIZE + 12345];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) ('A' + rand.nextInt(4));
+    }
+
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    OutputStream out = OutputCodecs.get(OutputCodecs.GZIP).wrap(compressed);
+    int i = 0;
+    while (i < data.length) {
+      if (rand.nextInt(10) == 0) {
+        out.write(data[i++]);
+      } else {
+        int n = Math.min(data.length - i, rand.nextInt(100000));
+        out.write(data, i, n);
+        i += n;
+      }
+    }
+    out.close();
+    assertTrue(compressed.size() < data.length / 2);
+
+    try (GZIPInputStream in =
+        new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+      assertArrayEquals(data, in.readAllBytes());
+    }
+  }
+
+  /** A stream closed without output is still a valid, empty gzip file. */
+  @Test
+  public void testParallelGzipEmpty() throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    OutputCodecs.get(OutputCodecs.GZIP).wrap(compressed).close();
+    assertTrue(compressed.size() > 0);
+    try (GZIPInputStream in =
+        new GZIPInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+      assertEquals(0, in.readAllBytes().length);
+    }
+  }
+
+  /** Appended gzip output reads back as one file, also once outputCodec has changed. */
+  @Test
+  public void testAppendAndRead() throws IOException {
+    File dir = File.createTempFile("codecs", "");
+    dir.delete();
+    dir.mkdir();
+    String name = new File(dir, "out.summary").getPath();
+    String codec = Parameters.outputCodec;
+    try {
+      Parameters.outputCodec = OutputCodecs.GZIP;
+      PrintStream out = OutputCodecs.open(name);
+      out.println("first");
+      out.close();
+      out = OutputCodecs.append(name);
+      out.println("second");
+      out.close();
+      assertTrue(new File(name + ".gz").exists());
+      assertFalse(new File(name).exists());
+
+      // a checkpoint written compressed is found and read by a run without compression
+      Parameters.outputCodec = OutputCodecs.NONE;
+      try (BufferedReader in = OutputCodecs.read(name)) {
+        assertEquals("first", in.readLine());
+        assertEquals("second", in.readLine());
+        assertNull(in.readLine());
+      }
+    } finally {
+      Parameters.outputCodec = codec;
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+    }
+  }
+
+  /** Codecs can be added by name, and the built in ones are always present. */
+  @Test
+  public void testRegister() {
+    assertEquals("", OutputCodecs.get(OutputCodecs.NONE).getExtension());
+    assertEquals(".gz", OutputCodecs.get(OutputCodecs.GZIP).getExtension());
+    assertNull(OutputCodecs.get("test"));
+    OutputCodecs.register(
+        new OutputCodec() {
+          public String getName() {
+            return "test";
+          }
+
+          public String getExtension() {
+            return ".test";
+          }
+
+          public OutputStream wrap(OutputStream out) {
+            return out;
+          }
+        });
+    assertEquals(".test", OutputCodecs.get("test").getExtension());
+  }
+}
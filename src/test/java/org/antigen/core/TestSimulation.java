@@ -0,0 +1,95 @@
+package org.antigen.core;
+
+import static org.junit.Assert.*;
+
+import org.antigen.virus.VirusTree;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test class for Simulation.java, specifically the fade-out criterion */
+public class TestSimulation {
+
+  @Before
+  public void setUp() {
+    Parameters.load();
+    Parameters.initialize();
+    Parameters.day = 0;
+    Parameters.burnin = 0;
+
+    // one strongly seasonal deme, R is 1.8 on average, 0.9 in the trough and 2.7 at the peak
+    Parameters.demeCount = 1;
+    Parameters.demeNames = new String[] {"deme"};
+    Parameters.initialNs = new int[] {2000};
+    Parameters.hostImmunitySamplesPerDeme = new int[] {0};
+    Parameters.demeBaselines = new double[] {1.0};
+    Parameters.demeAmplitudes = new double[] {0.5};
+    Parameters.demeOffsets = new double[] {0.0};
+    Parameters.initialDeme = 1;
+    Parameters.initialI = 5;
+    Parameters.initialPrR = 0.0;
+    Parameters.beta = 0.36;
+    Parameters.nu = 0.2;
+    Parameters.birthRate = 0.0;
+    Parameters.deathRate = 0.0;
+    Parameters.transcendental = false;
+    Parameters.tipSamplingRate = 0.0;
+    Parameters.fadeoutThreshold = 10;
+    Parameters.fadeoutProbability = 0.99;
+    Parameters.fadeoutWindow = 30.0;
+  }
+
+  @After
+  public void tearDown() {
+    Parameters.load();
+    Parameters.initialize();
+    Parameters.day = 0;
+    VirusTree.clear();
+  }
+
+  /** Subcritical epidemics always die out, supercritical ones with probability (1/R)^I. */
+  @Test
+  public void testExtinctionProbability() {
+    assertEquals(1.0, Simulation.extinctionProbability(0.8, 5), 0.0);
+    assertEquals(1.0, Simulation.extinctionProbability(1.0, 5), 0.0);
+    assertEquals(0.5, Simulation.extinctionProbability(2.0, 1), 1e-12);
+    assertEquals(0.125, Simulation.extinctionProbability(2.0, 3), 1e-12);
+    assertTrue(
+        Simulation.extinctionProbability(1.5, 10) < Simulation.extinctionProbability(1.5, 5));
+  }
+
+  /** A few infecteds in a seasonal trough are not taken for a fade-out. */
+  @Test
+  public void testSeasonalTroughDoesNotFadeOut() {
+    Simulation sim = new Simulation();
+    Parameters.day = 365.0 / 2; // trough of the season
+    assertTrue(Parameters.beta * Parameters.getSeasonality(0) / Parameters.nu < 1.0);
+    assertEquals(5, sim.getI());
+    assertTrue(sim.getExtinctionProbability() < Parameters.fadeoutProbability);
+    for (int step = 0; step < 100; step++) {
+      assertFalse(sim.isFadingOut());
+      Parameters.day += 1.0;
+    }
+  }
+
+  /**
+   * An epidemic that cannot grow even at the seasonal peak fades out once the window has passed.
+   */
+  @Test
+  public void testFadeOutAfterWindow() {
+    Parameters.beta = 0.1;
+    Simulation sim = new Simulation();
+    assertEquals(1.0, sim.getExtinctionProbability(), 0.0);
+    assertFalse(sim.isFadingOut());
+    Parameters.day += 29.0;
+    assertFalse(sim.isFadingOut());
+    Parameters.day += 1.0;
+    assertTrue(sim.isFadingOut());
+
+    // the window starts again once the epidemic no longer looks like fading out
+    Parameters.beta = 0.36;
+    assertFalse(sim.isFadingOut());
+    Parameters.beta = 0.1;
+    assertFalse(sim.isFadingOut());
+  }
+}
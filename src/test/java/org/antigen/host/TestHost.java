@@ -0,0 +1,146 @@
+package org.antigen.host;
+
+import static org.junit.Assert.*;
+
+import org.antigen.core.Parameters;
+import org.antigen.phenotype.GeometricPhenotype;
+import org.antigen.phenotype.Phenotype;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test class for Host.java, specifically bounded immune histories */
+public class TestHost {
+
+  @Before
+  public void setUp() {
+    Parameters.initialPrR = 0.0;
+    Parameters.smithConversion = 0.1;
+    Parameters.homologousImmunity = 0.95;
+  }
+
+  @After
+  public void tearDown() {
+    Parameters.historyMergeRadius = -1.0;
+    Parameters.maxHistoryLength = 0;
+  }
+
+  /** With a merge radius of 0, risk is the same as for the unbounded history. */
+  @Test
+  public void testZeroRadiusRiskEquivalent() {
+    java.util.Random rand = new java.util.Random(7);
+    Phenotype[] strains = new Phenotype[5];
+    for (int i = 0; i < strains.length; i++) {
+      strains[i] = new GeometricPhenotype(rand.nextInt(4), rand.nextInt(4));
+    }
+
+    for (int trial = 0; trial < 100; trial++) {
+      Parameters.historyMergeRadius = -1.0;
+      Host unbounded = new Host();
+      Parameters.historyMergeRadius = 0.0;
+      Host merged = new Host();
+      for (int i = 0; i < 20; i++) {
+        // same coordinates, sometimes as a different object
+        Phenotype p = strains[rand.nextInt(strains.length)];
+        if (rand.nextBoolean()) {
+          GeometricPhenotype g = (GeometricPhenotype) p;
+          p = new GeometricPhenotype(g.getTraitA(), g.getTraitB());
+        }
+        Parameters.historyMergeRadius = -1.0;
+        unbounded.addToHistory(p);
+        Parameters.historyMergeRadius = 0.0;
+        merged.addToHistory(p);
+      }
+      assertTrue(merged.getHistoryLength() <= strains.length);
+      for (int x = 0; x < 4; x++) {
+        for (int y = 0; y < 4; y++) {
+          Phenotype v = new GeometricPhenotype(x + 0.5, y);
+          assertEquals(
+              v.riskOfInfection(unbounded.getHistory()),
+              v.riskOfInfection(merged.getHistory()),
+              0.0);
+        }
+      }
+    }
+  }
+
+  /** Entries within the radius are replaced by the newest phenotype. */
+  @Test
+  public void testMergeRadius() {
+    Parameters.historyMergeRadius = 0.5;
+    Host h = new Host();
+    Phenotype a = new GeometricPhenotype(0.0, 0.0);
+    Phenotype b = new GeometricPhenotype(3.0, 0.0);
+    Phenotype c = new GeometricPhenotype(0.4, 0.0);
+    h.addToHistory(a);
+    h.addToHistory(b);
+    h.addToHistory(c);
+    assertArrayEquals(new Phenotype[] {b, c}, h.getHistory());
+  }
+
+  /** Above the cap, the older of the closest pair is dropped and order is kept. */
+  @Test
+  public void testMaxHistoryLength() {
+    Parameters.maxHistoryLength = 3;
+    Host h = new Host();
+    Phenotype a = new GeometricPhenotype(0.0, 0.0);
+    Phenotype b = new GeometricPhenotype(5.0, 0.0);
+    Phenotype c = new GeometricPhenotype(5.2, 0.0);
+    Phenotype d = new GeometricPhenotype(10.0, 0.0);
+    h.addToHistory(a);
+    h.addToHistory(b);
+    h.addToHistory(c);
+    h.addToHistory(d);
+    assertArrayEquals(new Phenotype[] {a, c, d}, h.getHistory());
+  }
+
+  /** Waning removes one entry in place and keeps the others in order of infection. */
+  @Test
+  public void testWaneKeepsOrder() {
+    Host h = new Host();
+    Phenotype[] added = new Phenotype[5];
+    for (int i = 0; i < added.length; i++) {
+      added[i] = new GeometricPhenotype(i, 0.0);
+      h.addToHistory(added[i]);
+    }
+    Phenotype[] buffer = h.getHistoryBuffer();
+    assertEquals(8, buffer.length);
+
+    h.waneImmunity();
+    assertSame(buffer, h.getHistoryBuffer());
+    assertEquals(4, h.getHistoryLength());
+    assertNull(buffer[4]);
+    int next = 0;
+    for (Phenotype p : h.getHistory()) {
+      while (added[next] != p) {
+        next++;
+      }
+    }
+
+    // the two entries added next fit in the same buffer
+    h.addToHistory(added[0]);
+    h.addToHistory(added[1]);
+    assertSame(buffer, h.getHistoryBuffer());
+  }
+
+  /** Buffers released on reset are handed to the next host that needs that capacity. */
+  @Test
+  public void testResetRecyclesBuffer() {
+    HistorySlab.clear();
+    Host a = new Host();
+    for (int i = 0; i < 3; i++) {
+      a.addToHistory(new GeometricPhenotype(i, 0.0));
+    }
+    Phenotype[] buffer = a.getHistoryBuffer();
+    a.reset();
+    assertEquals(0, a.getHistoryLength());
+    assertEquals(0, a.getHistoryBuffer().length);
+
+    Host b = new Host();
+    for (int i = 0; i < 3; i++) {
+      b.addToHistory(new GeometricPhenotype(i, 1.0));
+    }
+    assertSame(buffer, b.getHistoryBuffer());
+    assertNull(buffer[3]);
+  }
+}
@@ -0,0 +1,80 @@
+package org.antigen.host;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.antigen.core.OutputCodecs;
+import org.antigen.core.Parameters;
+import org.antigen.virus.VirusTree;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test class for HostDump.java */
+public class TestHostDump {
+
+  @Before
+  public void setUp() {
+    Parameters.load();
+    Parameters.initialize();
+    Parameters.day = 0;
+    Parameters.initialNs = new int[] {2000, 2000, 2000};
+    Parameters.initialDeme = 2;
+    Parameters.initialI = 20;
+    Parameters.initialPrR = 0.5;
+    Parameters.transcendental = false;
+    Parameters.tipSamplingRate = 0.0;
+  }
+
+  @After
+  public void tearDown() {
+    Parameters.day = 0;
+    VirusTree.clear();
+  }
+
+  /** A dump converted back to text matches printHostPopulation, with and without gzip. */
+  @Test
+  public void testConvertsToLegacyText() throws IOException {
+    List<HostPopulation> demes = new ArrayList<>();
+    for (int d = 0; d < 3; d++) {
+      demes.add(new HostPopulation(d));
+    }
+    for (int step = 0; step < 100; step++) {
+      for (HostPopulation hp : demes) {
+        hp.stepForward();
+      }
+      Parameters.day += Parameters.deltaT;
+    }
+
+    ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+    PrintStream legacyStream = new PrintStream(legacy);
+    for (HostPopulation hp : demes) {
+      hp.printHostPopulation(legacyStream);
+    }
+    legacyStream.flush();
+
+    for (String codec : new String[] {OutputCodecs.NONE, OutputCodecs.GZIP}) {
+      File file = File.createTempFile("dump", ".bin");
+      try {
+        HostDump.write(demes, file, OutputCodecs.get(codec));
+        ByteArrayOutputStream converted = new ByteArrayOutputStream();
+        PrintStream convertedStream = new PrintStream(converted);
+        try (InputStream in = new FileInputStream(file)) {
+          HostDump.toText(in, convertedStream);
+        }
+        convertedStream.flush();
+        assertEquals(legacy.toString(), converted.toString());
+        assertTrue(file.length() < legacy.size());
+      } finally {
+        file.delete();
+      }
+    }
+  }
+}
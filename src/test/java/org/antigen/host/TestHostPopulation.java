@@ -0,0 +1,97 @@
+package org.antigen.host;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import org.antigen.core.Parameters;
+import org.antigen.virus.VirusTree;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test class for HostPopulation.java, specifically hybridDemography and reset */
+public class TestHostPopulation {
+
+  @Before
+  public void setUp() {
+    Parameters.load();
+    Parameters.initialize();
+    Parameters.day = 0;
+    Parameters.initialNs = new int[] {5000, 5000, 5000};
+    Parameters.initialDeme = 2;
+    Parameters.initialI = 50;
+    Parameters.initialPrR = 0.5;
+    Parameters.birthRate = 0.01;
+    Parameters.deathRate = 0.01;
+    Parameters.swapDemography = true;
+    Parameters.transcendental = false;
+    Parameters.waning = false;
+    Parameters.tipSamplingRate = 0.0;
+    Parameters.hybridDemography = true;
+  }
+
+  @After
+  public void tearDown() {
+    Parameters.hybridDemography = false;
+    Parameters.day = 0;
+    VirusTree.clear();
+  }
+
+  /** Naive susceptibles are counted rather than created, and counts add up as hosts turn over. */
+  @Test
+  public void testNaiveHostsCounted() {
+    HostPopulation hp = new HostPopulation(1);
+    assertEquals(5000, hp.getN());
+    assertEquals(50, hp.getI());
+    assertEquals(4950, hp.getS());
+    // about half of the initial susceptibles start with immunity and are held as hosts
+    assertTrue(hp.getNaiveCount() > 2200 && hp.getNaiveCount() < 2750);
+
+    for (int step = 0; step < 500; step++) {
+      hp.stepForward();
+      Parameters.day += Parameters.deltaT;
+      assertEquals(5000, hp.getN());
+      assertEquals(hp.getN(), hp.getS() + hp.getI() + hp.getR());
+    }
+
+    // swapped hosts return to the naive count
+    assertTrue(hp.getNaiveCount() > 0);
+    assertTrue(hp.getCases() > 0);
+  }
+
+  /** Without hybridDemography every susceptible is held as a host. */
+  @Test
+  public void testOffByDefault() {
+    Parameters.hybridDemography = false;
+    HostPopulation hp = new HostPopulation(1);
+    assertEquals(0, hp.getNaiveCount());
+    assertEquals(4950, hp.getS());
+  }
+
+  /** Reset refills the population with the previous attempt's hosts, cleared of infection. */
+  @Test
+  public void testResetReusesHosts() {
+    Parameters.hybridDemography = false;
+    HostPopulation hp = new HostPopulation(1);
+    Set<Host> before = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (int i = 0; i < hp.getS(); i++) {
+      before.add(hp.getSusceptible(i));
+    }
+
+    hp.reset();
+    assertEquals(4950, hp.getS());
+    assertEquals(150, hp.getI());
+    int reused = 0;
+    for (int i = 0; i < hp.getS(); i++) {
+      Host h = hp.getSusceptible(i);
+      assertFalse(h.isInfected());
+      if (before.contains(h)) {
+        reused++;
+      }
+    }
+    // the 50 former infecteds are taken first, every other susceptible is an old one
+    assertEquals(4900, reused);
+  }
+}
@@ -0,0 +1,140 @@
+package org.antigen.host;
+
+import static org.junit.Assert.*;
+
+import org.antigen.core.Parameters;
+import org.antigen.phenotype.GeometricPhenotype;
+import org.antigen.phenotype.Phenotype;
+import org.junit.After;
+import org.junit.Test;
+
+/** Test class for MappedHostList.java */
+public class TestMappedHostList {
+
+  private MappedHostList list;
+
+  @After
+  public void tearDown() {
+    Parameters.maxHistoryLength = 0;
+    if (list != null) {
+      list.close();
+    }
+  }
+
+  private static Phenotype[] strains(int n) {
+    Phenotype[] strains = new Phenotype[n];
+    for (int i = 0; i < n; i++) {
+      strains[i] = new GeometricPhenotype(i, 0.0);
+    }
+    return strains;
+  }
+
+  private static Host host(Phenotype... history) {
+    Host h = new Host(false);
+    for (Phenotype p : history) {
+      h.addToHistory(p);
+    }
+    return h;
+  }
+
+  /** Hosts read back with the same phenotypes in order, across block boundaries. */
+  @Test
+  public void testRoundTrip() {
+    Parameters.maxHistoryLength = 3;
+    Phenotype[] strains = strains(4);
+    list = new MappedHostList(3);
+    int n = MappedHostList.BLOCK_RECORDS + 10;
+    for (int i = 0; i < n; i++) {
+      Host h = new Host(false);
+      for (int j = 0; j < i % 4; j++) {
+        h.addToHistory(strains[(i + j) % 4]);
+      }
+      list.add(h);
+    }
+    assertEquals(n, list.size());
+    assertEquals(4, MappedHostList.getPhenotypeCount());
+
+    for (int i = 0; i < n; i++) {
+      Host h = list.get(i);
+      assertEquals(Math.min(i % 4, 3), h.getHistoryLength());
+      assertFalse(h.isInfected());
+    }
+    Host last = list.get(n - 1);
+    assertSame(strains[(n - 1) % 4], last.getHistoryBuffer()[0]);
+
+    // changes are kept once written back
+    Host h = list.get(n - 1);
+    h.reset();
+    assertEquals(1, list.get(n - 1).getHistoryLength());
+    list.set(n - 1, h);
+    assertEquals(0, list.get(n - 1).getHistoryLength());
+
+    list.remove(n - 1);
+    assertEquals(n - 1, list.size());
+    list.clear();
+    assertEquals(0, list.size());
+    assertEquals(0, MappedHostList.getPhenotypeCount());
+  }
+
+  /** Phenotypes leave the table once no record refers to them, and their handles are reused. */
+  @Test
+  public void testReleasesPhenotypes() {
+    Parameters.maxHistoryLength = 2;
+    Phenotype[] strains = strains(4);
+    list = new MappedHostList(2);
+    list.add(host(strains[0], strains[1]));
+    list.add(host(strains[1]));
+    assertEquals(2, MappedHostList.getPhenotypeCount());
+
+    // strains[0] is dropped, strains[1] is still used by the second record
+    list.set(0, host(strains[2]));
+    assertEquals(2, MappedHostList.getPhenotypeCount());
+    assertSame(strains[2], list.get(0).getHistoryBuffer()[0]);
+
+    list.remove(1);
+    assertEquals(1, MappedHostList.getPhenotypeCount());
+    list.add(host(strains[3]));
+    assertEquals(2, MappedHostList.getPhenotypeCount());
+    assertSame(strains[3], list.get(1).getHistoryBuffer()[0]);
+    assertSame(strains[2], list.get(0).getHistoryBuffer()[0]);
+
+    list.clear();
+    assertEquals(0, MappedHostList.getPhenotypeCount());
+  }
+
+  /** Records are read and changed in place as the matching Host operations would. */
+  @Test
+  public void testInPlace() {
+    Parameters.maxHistoryLength = 3;
+    Phenotype[] strains = strains(3);
+    list = new MappedHostList(3);
+    list.add(host(strains[0], strains[1], strains[2]));
+    list.add(host(strains[1]));
+    list.add(host(strains[2], strains[0]));
+
+    Phenotype[] history = new Phenotype[3];
+    assertEquals(3, list.readHistory(0, history));
+    assertArrayEquals(strains, history);
+
+    // removing an entry shifts the later ones down
+    list.removeHistoryEntry(0, 1);
+    assertEquals(2, list.getHistoryLength(0));
+    list.readHistory(0, history);
+    assertSame(strains[0], history[0]);
+    assertSame(strains[2], history[1]);
+
+    // the last record takes the place of the removed one
+    list.swapRemove(1);
+    assertEquals(2, list.size());
+    assertEquals(2, list.readHistory(1, history));
+    assertSame(strains[2], history[0]);
+    assertSame(strains[0], history[1]);
+    assertEquals(2, MappedHostList.getPhenotypeCount());
+
+    list.clearHistory(0);
+    assertEquals(0, list.getHistoryLength(0));
+    assertEquals(2, MappedHostList.getPhenotypeCount());
+    list.swapRemove(1);
+    assertEquals(0, MappedHostList.getPhenotypeCount());
+  }
+}
@@ -0,0 +1,69 @@
+package org.antigen.phenotype;
+
+import static org.junit.Assert.*;
+
+import org.antigen.core.Parameters;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test class for GeometricPhenotypeND.java */
+public class TestGeometricPhenotypeND {
+
+  private GeometricPhenotypeND origin;
+  private GeometricPhenotypeND[] history;
+
+  @Before
+  public void setUp() {
+    Parameters.smithConversion = 0.1;
+    Parameters.homologousImmunity = 0.95;
+    Parameters.meanStep = 0.3;
+
+    origin = new GeometricPhenotypeND(5);
+    history = new GeometricPhenotypeND[2];
+    history[0] = new GeometricPhenotypeND(new double[] {3.0, 4.0, 0.0, 0.0, 0.0});
+    history[1] = new GeometricPhenotypeND(new double[] {1.0, 1.0, 1.0, 1.0, 0.0});
+  }
+
+  /** Distance is Euclidean across all dimensions. */
+  @Test
+  public void testDistance() {
+    assertEquals(5.0, origin.distance(history[0]), 1e-12);
+    assertEquals(2.0, origin.distance(history[1]), 1e-12);
+    assertEquals(history[1].distance(history[0]), history[0].distance(history[1]), 0.0);
+  }
+
+  /** Risk is set by the closest phenotype in the history, bounded by homologous immunity. */
+  @Test
+  public void testRiskOfInfection() {
+    assertEquals(0.2, origin.riskOfInfection(history), 1e-12);
+    assertEquals(1.0, origin.riskOfInfection(new Phenotype[0]), 0.0);
+    assertEquals(0.05, origin.riskOfInfection(new Phenotype[] {origin}), 1e-12);
+  }
+
+  /** Mutation returns a new phenotype of the same dimension and leaves the original unchanged. */
+  @Test
+  public void testMutate() {
+    GeometricPhenotypeND mutated = (GeometricPhenotypeND) history[0].mutate();
+    assertNotSame(history[0], mutated);
+    assertEquals(5, mutated.getDimensions());
+    assertEquals(5.0, origin.distance(history[0]), 1e-12);
+    assertTrue(mutated.distance(history[0]) > 0.0);
+  }
+
+  /** Factory aliases fix the dimension, geometricND reads it from the parameters. */
+  @Test
+  public void testFactoryDimensions() {
+    String space = Parameters.phenotypeSpace;
+    try {
+      Parameters.phenotypeSpace = "geometric10d";
+      assertEquals(10, ((Coordinates) PhenotypeFactory.makeVirusPhenotype()).getDimensions());
+      Parameters.phenotypeSpace = "geometricND";
+      Parameters.phenotypeDimensions = 7;
+      Coordinates host = (Coordinates) PhenotypeFactory.makeHostPhenotype();
+      assertEquals(7, host.getDimensions());
+      assertEquals(Parameters.initialTraitA, host.getTrait(0), 0.0);
+    } finally {
+      Parameters.phenotypeSpace = space;
+    }
+  }
+}
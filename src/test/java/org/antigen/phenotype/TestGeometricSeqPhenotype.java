@@ -4,7 +4,9 @@ import static org.junit.Assert.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import org.antigen.core.Parameters;
@@ -300,4 +302,51 @@ public class TestGeometricSeqPhenotype {
       assertTrue("Should have at least one matrix when values exist", matrices.size() > 0);
     }
   }
+
+  /** Recorded substitutions replay the lineage's sequence and antigenic position. */
+  @Test
+  public void testRecordMutations() {
+    Parameters.load();
+    Parameters.initialize();
+    double epitopeAcceptance = Parameters.epitopeAcceptance;
+    double nonEpitopeAcceptance = Parameters.nonEpitopeAcceptance;
+    Parameters.epitopeAcceptance = 1.0;
+    Parameters.nonEpitopeAcceptance = 1.0;
+    Parameters.recordMutations = true;
+    try {
+      GeometricSeqPhenotype original = new GeometricSeqPhenotype();
+      GeometricSeqPhenotype p = original;
+      for (int i = 0; i < 200; i++) {
+        p = (GeometricSeqPhenotype) p.mutate();
+      }
+      assertNull(original.getLastMutation());
+      assertEquals(200, Mutation.count(p.getLastMutation()));
+
+      // apply the records oldest first to the starting sequence
+      List<Mutation> records = new ArrayList<>();
+      for (Mutation m = p.getLastMutation(); m != null; m = m.getPrevious()) {
+        records.add(m);
+      }
+      char[] sequence = original.getSequence().toCharArray();
+      double traitA = original.getTraitA();
+      double traitB = original.getTraitB();
+      for (int k = records.size() - 1; k >= 0; k--) {
+        Mutation m = records.get(k);
+        assertEquals(sequence[m.getSite()], m.getWildTypeNucleotide());
+        sequence[m.getSite()] = m.getMutantNucleotide();
+        traitA += m.getVectorA();
+        traitB += m.getVectorB();
+        if (m.isSynonymous()) {
+          assertEquals(0.0, m.getVectorA(), 0.0);
+        }
+      }
+      assertEquals(p.getSequence(), String.valueOf(sequence));
+      assertEquals(p.getTraitA(), traitA, 1e-3);
+      assertEquals(p.getTraitB(), traitB, 1e-3);
+    } finally {
+      Parameters.recordMutations = false;
+      Parameters.epitopeAcceptance = epitopeAcceptance;
+      Parameters.nonEpitopeAcceptance = nonEpitopeAcceptance;
+    }
+  }
 }
@@ -0,0 +1,83 @@
+package org.antigen.phenotype;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import org.antigen.core.Parameters;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test class for HistoryBatch.java */
+public class TestHistoryBatch {
+
+  private Random random;
+
+  @Before
+  public void setUp() {
+    Parameters.smithConversion = 0.1;
+    Parameters.homologousImmunity = 0.95;
+    random = new Random(29);
+  }
+
+  private GeometricPhenotypeND randomND(int dim) {
+    double[] traits = new double[dim];
+    for (int k = 0; k < dim; k++) {
+      traits[k] = 4.0 * random.nextGaussian();
+    }
+    return new GeometricPhenotypeND(traits);
+  }
+
+  private void assertMatchesScalar(Phenotype p, Phenotype[][] histories) {
+    HistoryBatch batch = new HistoryBatch();
+    for (Phenotype[] history : histories) {
+      batch.add(history);
+    }
+    double[] risks = new double[histories.length + 1];
+    p.riskOfInfection(batch, risks, 1);
+    for (int i = 0; i < histories.length; i++) {
+      assertEquals(p.riskOfInfection(histories[i]), risks[i + 1], 1e-12);
+    }
+  }
+
+  /** Packed risks match the scalar risk for each history, including empty histories. */
+  @Test
+  public void testPackedND() {
+    Phenotype[][] histories = new Phenotype[40][];
+    for (int i = 0; i < histories.length; i++) {
+      histories[i] = new Phenotype[i % 6];
+      for (int j = 0; j < histories[i].length; j++) {
+        histories[i][j] = randomND(5);
+      }
+    }
+    histories[5][2] = new GeometricPhenotypeND(new double[] {0.0, 0.0, 0.0, 0.0, 0.001});
+    assertMatchesScalar(new GeometricPhenotypeND(5), histories);
+  }
+
+  /** Packed 2D risks match the scalar risk, the batch is reusable after clear. */
+  @Test
+  public void testPacked2D() {
+    Phenotype[][] histories = new Phenotype[20][];
+    for (int i = 0; i < histories.length; i++) {
+      histories[i] = new Phenotype[1 + i % 3];
+      for (int j = 0; j < histories[i].length; j++) {
+        histories[i][j] = new GeometricPhenotype(random.nextGaussian(), random.nextGaussian());
+      }
+    }
+    assertMatchesScalar(new GeometricPhenotype(0.5, -0.5), histories);
+
+    HistoryBatch batch = new HistoryBatch();
+    batch.add(histories[0]);
+    batch.clear();
+    assertEquals(0, batch.size());
+    assertTrue(batch.isPacked(2));
+  }
+
+  /** Histories of another dimension fall back to the scalar path. */
+  @Test
+  public void testMixedDimensions() {
+    HistoryBatch batch = new HistoryBatch();
+    batch.add(new Phenotype[] {randomND(3)});
+    batch.add(new Phenotype[] {randomND(4)});
+    assertFalse(batch.isPacked(3));
+  }
+}
@@ -0,0 +1,103 @@
+package org.antigen.phenotype;
+
+import static org.junit.Assert.*;
+
+import org.antigen.core.Parameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test class for PhenotypePool.java */
+public class TestPhenotypePool {
+
+  @Before
+  public void setUp() {
+    Parameters.internPhenotypes = true;
+    PhenotypePool.clear();
+  }
+
+  @After
+  public void tearDown() {
+    Parameters.internPhenotypes = false;
+    PhenotypePool.clear();
+  }
+
+  /** Equal phenotypes resolve to the first one pooled, different ones stay distinct. */
+  @Test
+  public void testIntern() {
+    GeometricPhenotype a = new GeometricPhenotype(1.0, 2.0);
+    GeometricPhenotype b = new GeometricPhenotype(1.0, 2.0);
+    GeometricPhenotype c = new GeometricPhenotype(1.0, 2.5);
+    GeometricPhenotypeND d = new GeometricPhenotypeND(new double[] {1.0, 2.0});
+
+    assertSame(a, PhenotypePool.intern(a));
+    assertSame(a, PhenotypePool.intern(b));
+    assertSame(c, PhenotypePool.intern(c));
+    assertSame(d, PhenotypePool.intern(d)); // same coordinates, different type
+    assertSame(a, PhenotypePool.intern(a));
+
+    assertEquals(5, PhenotypePool.getLookups());
+    assertEquals(1, PhenotypePool.getHits());
+    assertEquals(3, PhenotypePool.size());
+  }
+
+  /** Sequence phenotypes are only shared when their sequences match too. */
+  @Test
+  public void testInternSequence() {
+    GeometricSeqPhenotype a = new GeometricSeqPhenotype(0.0, 0.0, "ACGTTT".toCharArray());
+    GeometricSeqPhenotype b = new GeometricSeqPhenotype(0.0, 0.0, "ACGTTT".toCharArray());
+    GeometricSeqPhenotype c = new GeometricSeqPhenotype(0.0, 0.0, "ACGTTC".toCharArray());
+
+    assertSame(a, PhenotypePool.intern(a));
+    assertSame(a, PhenotypePool.intern(b));
+    assertSame(c, PhenotypePool.intern(c));
+  }
+
+  /** Equal sequences from different lineages stay distinct while mutations are recorded. */
+  @Test
+  public void testInternRecordedLineage() {
+    Parameters.load();
+    Parameters.initialize();
+    double epitopeAcceptance = Parameters.epitopeAcceptance;
+    double nonEpitopeAcceptance = Parameters.nonEpitopeAcceptance;
+    Parameters.internPhenotypes = true;
+    Parameters.epitopeAcceptance = 1.0;
+    Parameters.nonEpitopeAcceptance = 1.0;
+    Parameters.recordMutations = true;
+    try {
+      GeometricSeqPhenotype mutant = (GeometricSeqPhenotype) new GeometricSeqPhenotype().mutate();
+      int[] counts = mutant.getMutationCounts();
+      // same value, but reached without the recorded substitution
+      GeometricSeqPhenotype other =
+          new GeometricSeqPhenotype(
+              mutant.getTraitA(),
+              mutant.getTraitB(),
+              mutant.getNucleotides(),
+              counts[0],
+              counts[1],
+              counts[2],
+              counts[3]);
+      assertNotNull(mutant.getLastMutation());
+      assertNull(other.getLastMutation());
+
+      assertSame(mutant, PhenotypePool.intern(mutant));
+      assertSame(other, PhenotypePool.intern(other));
+      assertEquals(0, PhenotypePool.getHits());
+    } finally {
+      Parameters.recordMutations = false;
+      Parameters.epitopeAcceptance = epitopeAcceptance;
+      Parameters.nonEpitopeAcceptance = nonEpitopeAcceptance;
+    }
+  }
+
+  /** Interning is a no-op when turned off. */
+  @Test
+  public void testDisabled() {
+    Parameters.internPhenotypes = false;
+    GeometricPhenotype a = new GeometricPhenotype(1.0, 2.0);
+    GeometricPhenotype b = new GeometricPhenotype(1.0, 2.0);
+    assertSame(a, PhenotypePool.intern(a));
+    assertSame(b, PhenotypePool.intern(b));
+    assertEquals(0, PhenotypePool.getLookups());
+  }
+}
@@ -2,6 +2,9 @@ package org.antigen.virus;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import org.antigen.core.Parameters;
 import org.junit.Before;
 import org.junit.Test;
@@ -102,4 +105,79 @@ public class TestBiology {
     double observedRatio = (double) transitionsFromA / (transversionsFromA / 2.0);
     assertEquals(5.0, observedRatio, 0.5); // Allow some statistical variance
   }
+
+  /** Mutation contexts exclude STOP codons and renormalize the remaining K80 probabilities */
+  @Test
+  public void testMutationSamplerExcludesStops() {
+    Biology.MutationSampler sampler = Biology.MutationSampler.SAMPLER;
+
+    // TGG (W), third position: G -> A gives TGA (STOP), leaving the two transversions
+    int context = sampler.getContext("TGG".toCharArray(), 2);
+    assertEquals(2.0 / 7.0, sampler.getAcceptance(context), 1e-12);
+
+    // GCT (A), first position: no mutation gives a STOP codon
+    assertEquals(1.0, sampler.getAcceptance(sampler.getContext("GCT".toCharArray(), 0)), 1e-12);
+
+    int[] counts = new int[4];
+    int numSamples = 100000;
+    for (int i = 0; i < numSamples; i++) {
+      counts[sampler.sampleNucleotide(context)]++;
+    }
+    assertEquals(0, counts[0]); // A would give TGA
+    assertEquals(0, counts[2]); // G is the wild type
+    assertEquals(0.5, (double) counts[1] / numSamples, 0.01);
+    assertEquals(0.5, (double) counts[3] / numSamples, 0.01);
+  }
+
+  /** Codon indices translate to the same amino acids as codon strings */
+  @Test
+  public void testAminoAcidByCodonIndex() {
+    String nucleotides = "ACGT";
+    for (int codon = 0; codon < 64; codon++) {
+      String triplet =
+          ""
+              + nucleotides.charAt(codon / 16)
+              + nucleotides.charAt((codon / 4) % 4)
+              + nucleotides.charAt(codon % 4);
+      assertEquals(
+          Biology.CodonMap.CODONS.getAminoAcid(triplet),
+          Biology.CodonMap.CODONS.getAminoAcid(codon));
+    }
+  }
+
+  /** DMS rows are read without the header and site column, and acceptance is min(1, ratio) */
+  @Test
+  public void testDMSAcceptanceTable() throws IOException {
+    StringBuilder csv = new StringBuilder("site,A,C,D,E,F,G,H,I,K,L,M,N,P,Q,R,S,T,W,Y,V\r\n");
+    for (int site = 1; site <= 2; site++) {
+      csv.append(site);
+      for (int a = 0; a < 20; a++) {
+        // site 1: A is twice as preferred as C, D is never observed
+        double preference = a == 0 ? 0.1 : a == 1 ? 0.05 : a == 2 ? 0.0 : 0.85 / 17;
+        csv.append(',').append(site == 1 ? preference : 0.05);
+      }
+      csv.append("\r\n");
+    }
+    double[][] preferences =
+        Biology.readPreferences(
+            new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.US_ASCII)));
+    assertEquals(2, preferences.length);
+    assertEquals(20, preferences[0].length);
+    assertEquals(0.1, preferences[0][0], 0.0);
+    assertEquals(0.05, preferences[1][19], 0.0);
+
+    float[][][] acceptance = Biology.acceptanceTable(preferences);
+    assertEquals(0.5, acceptance[0][0][1], 1e-6); // A -> C halves the preference
+    assertEquals(1.0, acceptance[0][1][0], 0.0); // C -> A is always accepted
+    assertEquals(0.0, acceptance[0][0][2], 0.0); // D is never accepted
+    assertEquals(1.0, acceptance[0][2][0], 0.0); // leaving D is always accepted
+    assertEquals(1.0, acceptance[1][5][7], 0.0); // flat site
+  }
+
+  /** Rows with the wrong number of columns are rejected */
+  @Test(expected = IOException.class)
+  public void testDMSRowTooShort() throws IOException {
+    String csv = "site,A,C\n1,0.5,0.5\n";
+    Biology.readPreferences(new ByteArrayInputStream(csv.getBytes(StandardCharsets.US_ASCII)));
+  }
 }
@@ -0,0 +1,62 @@
+package org.antigen.virus;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.antigen.phenotype.GeometricSeqPhenotype;
+import org.junit.Test;
+
+/** Test class for DeltaFasta.java */
+public class TestDeltaFasta {
+
+  /** Expanding a delta file gives each tip's full sequence under its usual header. */
+  @Test
+  public void testExpandRoundTrip() throws IOException {
+    java.util.Random rand = new java.util.Random(5);
+    char[] bases = {'A', 'C', 'G', 'T'};
+    char[] reference = new char[300];
+    for (int i = 0; i < reference.length; i++) {
+      reference[i] = bases[rand.nextInt(4)];
+    }
+
+    List<Virus> tips = new ArrayList<>();
+    int[] order = new int[50];
+    char[] sequence = reference.clone();
+    for (int t = 0; t < 50; t++) {
+      // a few changes per tip, sometimes none or a change back
+      for (int m = rand.nextInt(4); m > 0; m--) {
+        sequence[rand.nextInt(sequence.length)] = bases[rand.nextInt(4)];
+      }
+      Virus v = new Virus(0, new GeometricSeqPhenotype(0.0, 0.0, sequence.clone()));
+      tips.add(v);
+      order[t] = 49 - t;
+    }
+
+    ByteArrayOutputStream delta = new ByteArrayOutputStream();
+    PrintStream deltaStream = new PrintStream(delta);
+    // written in reverse, so each tip follows the one it was derived from
+    java.util.Collections.reverse(tips);
+    DeltaFasta.write(deltaStream, reference, tips, order);
+    deltaStream.flush();
+
+    ByteArrayOutputStream fasta = new ByteArrayOutputStream();
+    PrintStream fastaStream = new PrintStream(fasta);
+    DeltaFasta.expand(new BufferedReader(new StringReader(delta.toString())), fastaStream);
+    fastaStream.flush();
+
+    String[] lines = fasta.toString().split("\n");
+    assertEquals(2 * tips.size(), lines.length);
+    for (int t = 0; t < tips.size(); t++) {
+      Virus v = tips.get(49 - t);
+      assertTrue(lines[2 * t].startsWith(">seq" + (49 - t) + "|"));
+      assertEquals(((GeometricSeqPhenotype) v.getPhenotype()).getSequence(), lines[2 * t + 1]);
+    }
+    assertTrue(delta.size() < fasta.size() / 5);
+  }
+}
@@ -0,0 +1,57 @@
+package org.antigen.virus;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import org.antigen.core.Parameters;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test class for TipIndex.java */
+public class TestTipIndex {
+
+  private List<Virus> tips;
+
+  @Before
+  public void setUp() {
+    Parameters.phenotypeSpace = "geometric";
+    Parameters.burnin = 0;
+    Parameters.demeCount = 3;
+
+    // tips listed by deme as VirusTree holds them, births out of order across demes
+    tips = new ArrayList<>();
+    Parameters.day = 0;
+    Virus root = new Virus();
+    int[][] daysByDeme = {{10, 100, 400}, {50, 60}, {5, 365, 366, 700}};
+    for (int d = 0; d < daysByDeme.length; d++) {
+      for (int day : daysByDeme[d]) {
+        Parameters.day = day;
+        tips.add(new Virus(root, d));
+      }
+    }
+  }
+
+  /** Counts per deme and per window match a scan of the tips. */
+  @Test
+  public void testCounts() {
+    TipIndex index = new TipIndex(tips);
+    assertEquals(3, index.getDemeCount(0));
+    assertEquals(2, index.getDemeCount(1));
+    assertEquals(4, index.getDemeCount(2));
+    assertEquals(5, index.countFromTo(0.0, 1.0));
+    assertEquals(3, index.countFromTo(1.0, 1.1));
+    assertEquals(0, index.countFromTo(1.5, 1.9));
+    assertEquals(0, index.countFromTo(2.0, 1.0));
+  }
+
+  /** Random tips come from the requested window, empty windows give null. */
+  @Test
+  public void testRandomTipFromTo() {
+    TipIndex index = new TipIndex(tips);
+    for (int i = 0; i < 50; i++) {
+      Virus v = index.getRandomTipFromTo(0.1, 0.5);
+      assertTrue(v.getBirth() >= 0.1 && v.getBirth() < 0.5);
+    }
+    assertNull(index.getRandomTipFromTo(1.5, 1.9));
+  }
+}
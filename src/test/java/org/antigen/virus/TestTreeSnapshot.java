@@ -0,0 +1,115 @@
+package org.antigen.virus;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import org.antigen.core.Parameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Test class for TreeSnapshot.java */
+public class TestTreeSnapshot {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private String filenameStem;
+
+  @Before
+  public void setUp() {
+    Parameters.phenotypeSpace = "geometric";
+    Parameters.burnin = 0;
+    Parameters.demeCount = 3;
+    Parameters.tipSamplesPerDeme = 1000;
+    filenameStem = VirusTree.filenameStem;
+    VirusTree.clear();
+  }
+
+  @After
+  public void tearDown() {
+    VirusTree.filenameStem = filenameStem;
+    VirusTree.clear();
+  }
+
+  /** A snapshot's tree matches the end-of-run tree built from the same tips. */
+  @Test
+  public void testNewickMatchesEndOfRunTree() throws Exception {
+    java.util.Random random = new java.util.Random(7);
+
+    // random genealogy, with sampled viruses both at tips and inside the tree
+    Parameters.day = 0;
+    List<Virus> viruses = new ArrayList<>();
+    viruses.add(new Virus());
+    for (int i = 0; i < 300; i++) {
+      Parameters.day += random.nextInt(3);
+      Virus parent = viruses.get(viruses.size() - 1 - random.nextInt(Math.min(20, viruses.size())));
+      int deme = random.nextInt(3);
+      Virus child =
+          random.nextInt(5) == 0
+              ? new Virus(parent, deme, parent.getPhenotype().mutate())
+              : new Virus(parent, deme);
+      viruses.add(child);
+    }
+    for (int i = 0; i < 40; i++) {
+      VirusTree.add(viruses.get(50 + random.nextInt(viruses.size() - 50)));
+    }
+
+    File dir = folder.getRoot();
+    TreeSnapshot snapshot = new TreeSnapshot(VirusTree.getTips(), Parameters.getDate());
+    snapshot.print(new File(dir, "snapshot").getPath());
+
+    // end-of-run tree preparation that changes topology, as in Simulation.run
+    VirusTree.filenameStem = new File(dir, "end").getPath();
+    VirusTree.pruneTips();
+    VirusTree.reroot();
+    VirusTree.fillBackward();
+    VirusTree.streamline();
+    VirusTree.printNewick();
+
+    String expected = read(new File(dir, "end.trees"));
+    String actual = read(new File(dir, "snapshot.trees"));
+    assertEquals(canonical(expected), canonical(actual));
+    assertTrue(new File(dir, "snapshot.tips.csv").exists());
+    assertTrue(new File(dir, "snapshot.branches.csv").exists());
+  }
+
+  private static String read(File file) throws Exception {
+    return new String(Files.readAllBytes(file.toPath())).trim();
+  }
+
+  // newick with the children of every node sorted, so that child order does not matter
+  private static String canonical(String newick) {
+    int[] position = {0};
+    return canonical(newick, position);
+  }
+
+  private static String canonical(String newick, int[] position) {
+    StringBuilder node = new StringBuilder();
+    if (newick.charAt(position[0]) == '(') {
+      List<String> children = new ArrayList<>();
+      do {
+        position[0]++;
+        children.add(canonical(newick, position));
+      } while (newick.charAt(position[0]) == ',');
+      position[0]++; // closing bracket
+      Collections.sort(children);
+      node.append("(").append(String.join(",", children)).append(")");
+    }
+    while (position[0] < newick.length()
+        && newick.charAt(position[0]) != ','
+        && newick.charAt(position[0]) != ')') {
+      char c = newick.charAt(position[0]++);
+      node.append(c);
+      if (c == '[') {
+        while (newick.charAt(position[0]) != ']') {
+          node.append(newick.charAt(position[0]++));
+        }
+      }
+    }
+    return node.toString();
+  }
+}